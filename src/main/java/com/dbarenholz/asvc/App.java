@@ -1,32 +1,57 @@
 package com.dbarenholz.asvc;
 
 import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+import com.dbarenholz.asvc.cache.CacheStore;
+import com.dbarenholz.asvc.cache.Connectivity;
+import com.dbarenholz.asvc.io.CSVWriter;
+import com.dbarenholz.asvc.io.ExportFormat;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.parsing.AccentEngine;
+import com.dbarenholz.asvc.parsing.WordExtractor;
+import com.dbarenholz.asvc.scraping.ResolutionPlan;
+import com.dbarenholz.asvc.scraping.RunJournal;
+import com.dbarenholz.asvc.scraping.ScrapeEngine;
+import com.dbarenholz.asvc.scraping.WarmUp;
+import com.dbarenholz.asvc.service.DeckService;
+import com.dbarenholz.asvc.vocabitem.VocabField;
 import com.dbarenholz.asvc.vocabitem.VocabItem;
+import com.dbarenholz.asvc.vocabitem.VocabStore;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.control.cell.TextFieldTableCell;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ASVC Application class.
@@ -37,8 +62,24 @@ public class App extends Application {
 
     // === Variables === //
     private static final Logger logger = LogManager.getLogger(); // logger
-    public static ArrayList<File> cache = new ArrayList<>();     // file cache representation
     private HashSet<VocabItem> words = new HashSet<>();          // words
+    private Map<VocabItem, CompletableFuture<VocabItem>> scraped; // scraped words, filled in as they arrive
+    private Map<VocabItem, String> scrapedKana;                   // kuromoji kana per scraped word, keys the store
+    private final RunJournal journal = RunJournal.getJournal();  // progress of the current run, to resume it
+    private final Tokenizer tokenizer = new Tokenizer();          // shared by the extractor and the accent engine
+    private final ScrapeEngine scrapeEngine =                     // remembers lookups, scraped once per run
+            new ScrapeEngine(journal, new AccentEngine(tokenizer));
+    private ResolutionPlan plan;                                  // fields and sources chosen in step 3
+    private ExportFormat exportFormat = ExportFormat.TEXT;        // format chosen in step 3, may change in step 5
+    private final WordExtractor extractor =
+            new WordExtractor(tokenizer, this::addParsedWords, Settings.tokenizeThreads);
+    private ListView<VocabItem> parsedWordsList;                 // step 2 list, receives words still being parsed
+    private final ExecutorService storeWriter =                   // writes edits and word history to disk, in order
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "asvc-store");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     /**
      * Checks if there is a .ini file present for user settings.
@@ -90,31 +131,22 @@ public class App extends Application {
      * Helper method to initialise application cache.
      */
     private void initialiseCache() {
-        File cache = new File(Settings.cachePath);
-
-        if (!cache.exists()) {
-            // does not exist
-            logger.debug("Cache does not exist at {}!", Settings.cachePath);
-        } else if (!cache.isDirectory()) {
-            // exists, but no directory
-            logger.debug("Cache at {} is not a directory!", Settings.cachePath);
-        } else if (!cache.canWrite()) {
-            // exists, directory, but cannot write
-            logger.debug("Cannot write to cache at {}", Settings.cachePath);
-        } else if (!cache.canRead()) {
-            // exists, directory can write, cannot read
-            logger.debug("Cannot read from cache at {}", Settings.cachePath);
+        try {
+            CacheStore.getStore().initialise();
+        } catch (IOException e) {
+            logger.warn("Cannot create cache at {}: {}", Settings.cachePath, e.getMessage());
         }
+    }
 
-        File[] files = cache.listFiles(File::isFile);
-        if (files != null) {
-            logger.debug("Cache contains following items:\n");
-            for(File file : files) {
-                logger.debug("- {}", file.getName());
-            }
-            Collections.addAll(App.cache, files);
-        } else {
-            logger.debug("Cache files was null. Possibly empty!");
+    /**
+     * Helper method to initialise the store of previously scraped words.
+     */
+    private void initialiseVocabStore() {
+        try {
+            VocabStore.getVocabStore().load();
+        } catch (IOException e) {
+            logger.warn("Cannot load vocab store at {}: {}. Scraped words will not be kept.",
+                    Settings.vocabStorePath, e.getMessage());
         }
     }
 
@@ -124,62 +156,245 @@ public class App extends Application {
     private void initialiseApplication() {
         initialiseSettings();
         initialiseCache();
+        initialiseVocabStore();
+
+        // probe all sources in the background, so their state is known by the time scraping starts
+        Connectivity.getConnectivity().probeAll();
+
+        // prefetch frequent words while the user picks a song; pauses while scraping
+        WarmUp.getWarmUp().start();
     }
 
     /**
-     * Helper method for checking if there is a usable internet connection.
-     * @return {@code true} if there is a useable internet connection, {@code false} otherwise.
+     * Helper method for checking which sources can be reached. Probes them in the background, and shows the result in
+     * {@code label} once known.
+     *
+     * @param label label to show the result in
      */
-    private boolean internetAvailable() {
-        try {
-            final URL url = new URL("https://www.google.com");
-            final URLConnection conn = url.openConnection();
-            conn.connect();
-            conn.getInputStream().close();
-            return true;
-        } catch (Exception e) {
-            logger.debug("Internet is not available: Cannot scrape!");
+    private void showConnectivity(Label label) {
+        label.setText("Checking connection...");
+
+        Connectivity.getConnectivity().probeAll().thenAccept(reachable -> {
+            List<String> unreachable = new ArrayList<>();
+            reachable.forEach((source, up) -> {
+                if (!up) {
+                    unreachable.add(source);
+                }
+            });
+
+            Platform.runLater(() -> {
+                if (unreachable.isEmpty()) {
+                    label.setText("Internet is available!");
+                } else {
+                    logger.debug("Unreachable sources: {}", unreachable);
+                    label.setText("Cannot reach " + String.join(", ", unreachable) + " at the moment...\n"
+                            + "Cached results are shown; other words are scraped once the connection is back.");
+                }
+            });
+        });
+    }
+
+    /**
+     * Helper method for step1; adds newly parsed words to the list. Called by the extractor after every chunk of text,
+     * possibly from a background thread while a file is still being read.
+     *
+     * @param newWords words that were not parsed before
+     */
+    private void addParsedWords(List<VocabItem> newWords) {
+        Runnable add = () -> {
+            words.addAll(newWords);
+            if (parsedWordsList != null) {
+                parsedWordsList.getItems().addAll(newWords);
+                parsedWordsList.getItems().sort(extractor.byFrequency());
+            }
+
+            logger.debug("Parsed {} words", words.size());
+            if (logger.isTraceEnabled()) {
+                newWords.forEach(word -> logger.trace("Added word:  {}", word));
+            }
+        };
+
+        if (Platform.isFxApplicationThread()) {
+            add.run();
+        } else {
+            Platform.runLater(add);
+        }
+    }
+
+    /**
+     * Helper method for step 5; writes all scraped words to a file once they are scraped, on a background thread.
+     * Their audio and pitch accent files are copied into Anki's media folder ({@link Settings#mediaPath}) if Anki is
+     * installed, or into a {@code collection.media} folder next to the file otherwise.
+     *
+     * @param file   file to write to
+     * @param format format to write words in
+     */
+    private void export(File file, ExportFormat format) {
+        if (scraped == null) {
+            return;
         }
-        return false;
+
+        List<CompletableFuture<VocabItem>> futures = new ArrayList<>(scraped.values());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+            List<VocabItem> items = new ArrayList<>();
+            futures.forEach(future -> items.add(future.join()));
+
+            try (CSVWriter writer = new CSVWriter(file.getPath(), format)) {
+                writer.write(items);
+                logger.info("Exported {} words to {}", items.size(), file);
+                journal.finish();
+            } catch (IOException e) {
+                logger.warn("Cannot export words to {}: {}", file, e.getMessage());
+                return;
+            }
+
+            Path media = Files.isDirectory(Paths.get(Settings.mediaPath))
+                    ? Paths.get(Settings.mediaPath)
+                    : file.toPath().resolveSibling("collection.media");
+            try {
+                logger.info("Exported {} media files to {}", CSVWriter.writeMedia(items, format, media), media);
+            } catch (IOException e) {
+                logger.warn("Cannot export media files to {}: {}", media, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Helper method for step 3; scrapes the most frequent words, journaling the run so it can be resumed.
+     */
+    private void startRun() {
+        List<VocabItem> run = extractor.mostFrequent(words, Settings.maxScrapedWords);
+
+        // remember all words of the song, so later warm-ups prefetch them
+        Map<String, Integer> counts = new HashMap<>();
+        for (VocabItem word : words) {
+            counts.merge(word.getKanji(), extractor.count(word), Integer::sum);
+        }
+        storeWriter.execute(() -> WarmUp.getWarmUp().record(counts));
+
+        journal.start(plan, run);
+        scrape(run);
     }
 
     /**
-     * Helper method for step1; parses an unparsed string and adds its words to the list.
+     * Helper method to scrape words with the current plan, logging a summary of the metrics once all are scraped.
      *
-     * @param unparsedLyrics unparsed lyrics
+     * @param run words to scrape
      */
-    private void addParsedWordsToList(String unparsedLyrics) {
-        new Tokenizer()
-                .tokenize(unparsedLyrics)
-                .stream()
-                .filter(token -> !token.getWrittenBaseForm().matches("([\u3041-\u3093\u30a1-\u30f3]+)")) // kana
-                .filter(token -> !token.getWrittenBaseForm().matches("[0-9]*"))                          // numbers
-                .filter(token -> !token.getWrittenBaseForm().matches("\\*"))                             // *
-                .filter(token -> !token.getWrittenBaseForm().matches("\\["))                             // [
-                .filter(token -> !token.getWrittenBaseForm().matches("]"))                               // ]
-                .filter(token -> !token.getWrittenBaseForm().matches("　"))                              // (space)
-                .filter(token -> !token.getWrittenBaseForm().matches("”"))                               // ”
-                .filter(token -> !token.getWrittenBaseForm().matches("“"))                               // “
-                .filter(token -> !token.getWrittenBaseForm().matches("）"))                              // ）
-                .filter(token -> !token.getWrittenBaseForm().matches("「"))                              // 「
-                .filter(token -> !token.getWrittenBaseForm().matches("」"))                              // 」
-                .filter(token -> !token.getWrittenBaseForm().matches("『"))                              // 『
-                .filter(token -> !token.getWrittenBaseForm().matches("（"))                              // （
-                .filter(token -> !token.getWrittenBaseForm().matches("、"))                              // 、
-                .filter(token -> !token.getWrittenBaseForm().matches("。"))                              // 。
-                .filter(token -> !token.getWrittenBaseForm().matches("!"))                               // !
-                .filter(token -> !token.getWrittenBaseForm().matches("F"))                               // F
-                .filter(token -> !token.getWrittenBaseForm().matches("J"))                               // J
-                .filter(token -> !token.getWrittenBaseForm().matches("M"))                               // M
-                .filter(token -> !token.getWrittenBaseForm().matches("・"))                              // ・
-                .map(token -> new VocabItem(token.getWrittenBaseForm(), token.getKanaBase()))
-                .filter(vocabItem -> !words.contains(vocabItem)) // TODO: Fix contains with VocabItem
-                .forEach(newVocabItem -> words.add(newVocabItem));
-        words.forEach(word -> logger.debug("Added word:  {}", word));
+    private void scrape(List<VocabItem> run) {
+        scrapedKana = new HashMap<>();
+        run.forEach(word -> scrapedKana.putIfAbsent(word, word.getKana()));
+        scraped = scrapeEngine.scrape(run, plan);
+        CompletableFuture.allOf(scraped.values().toArray(new CompletableFuture<?>[0]))
+                .thenRun(Metrics::logSummary);
+    }
+
+    /**
+     * Helper method to resume a run that was interrupted by a crash or by closing the application, if there is one and
+     * the user wants to. The journal is read on a background thread; the user is asked once it is read.
+     *
+     * @param root application GUI root
+     */
+    private void resumeInterruptedRun(HBox root) {
+        CompletableFuture.runAsync(() -> {
+            RunJournal.Run run;
+            try {
+                run = journal.load();
+            } catch (IOException e) {
+                logger.warn("Cannot read run journal {}: {}", Settings.journalPath, e.getMessage());
+                return;
+            }
+            if (run != null) {
+                Platform.runLater(() -> offerToResume(root, run));
+            }
+        });
+    }
+
+    /**
+     * Helper method for {@link #resumeInterruptedRun(HBox)}; asks the user whether to resume an interrupted run. A
+     * resumed run continues at step 4.
+     *
+     * @param root application GUI root
+     * @param run  interrupted run
+     */
+    private void offerToResume(HBox root, RunJournal.Run run) {
+        Alert alert = new Alert(
+                Alert.AlertType.CONFIRMATION,
+                "The previous run of " + run.getWords().size() + " words was interrupted after "
+                        + run.getCompletedLookups() + " lookups. Resume it?",
+                ButtonType.YES,
+                ButtonType.NO
+        );
+        alert.setHeaderText("Interrupted run");
+        alert.setTitle("ASVC -- Resume run");
+        Optional<ButtonType> answer = alert.showAndWait();
+
+        if (answer.isPresent() && answer.get() == ButtonType.YES) {
+            words.clear();
+            words.addAll(run.getWords());
+            plan = run.getPlan();
+            scrape(run.getWords());
+
+            Region nextContainer = step4(root);
+            root.getChildren().setAll(nextContainer);
+            logger.info("Resuming run of {} words, moving to step 4...", run.getWords().size());
+        } else {
+            journal.finish();
+        }
+    }
+
+    /**
+     * Helper method to close the application. The journal of an unfinished run is kept, so it can be resumed on the
+     * next start; lookups still running are abandoned.
+     */
+    private void shutdown() {
+        logger.info("Closing application...");
+        WarmUp.getWarmUp().stop();
+        if (scraped != null) {
+            long done = scraped.values().stream().filter(CompletableFuture::isDone).count();
+            if (done < scraped.size()) {
+                logger.info("Closing with {} of {} words scraped; the run can be resumed on the next start",
+                        done, scraped.size());
+            }
+        }
+
+        Metrics.logSummary();
+        storeWriter.shutdown();
+        try {
+            if (!storeWriter.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Closing before all edits and the word history are written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        try {
+            VocabStore.getVocabStore().close();
+        } catch (IOException e) {
+            logger.warn("Cannot close vocab store: {}", e.getMessage());
+        }
     }
 
     // === GUI Helpers === //
 
+    /**
+     * Helper method for step 4; applies an edit of the review table, and keeps it in the vocab store, so the word is
+     * not scraped again over it. The store gets a copy of the item, written on a background thread.
+     *
+     * @param item  edited item
+     * @param field edited field
+     * @param value new value of the field
+     */
+    private void saveEdit(VocabItem item, VocabField field, String value) {
+        field.set(item, value);
+
+        // the store is keyed by the kana kuromoji gave the word, which the scraped item may have replaced
+        String kana = scrapedKana.getOrDefault(item, item.getKana());
+        VocabItem copy = item.copy();
+        storeWriter.execute(() -> VocabStore.getVocabStore().put(copy.getKanji(), kana, copy));
+        logger.debug("Edited {} of {}", field, item.getKanji());
+    }
+
     /**
      * Helper method for GUI. Called when done with a first song, and the user wants to restart for another one.
      */
@@ -229,6 +444,10 @@ public class App extends Application {
         Label stepFiveLabel = new Label("Step 5");
         Label stepFiveSubLabel = new Label("Set exporting options");
 
+        ChoiceBox<ExportFormat> exportChoice = new ChoiceBox<>();
+        exportChoice.getItems().addAll(ExportFormat.values());
+        exportChoice.setValue(exportFormat);
+
         ButtonBar navigation = new ButtonBar();
         Button nextButton = new Button("Nice!");
         Button previousButton = new Button("Back");
@@ -237,11 +456,36 @@ public class App extends Application {
 
         container.getChildren().add(stepFiveLabel);
         container.getChildren().add(stepFiveSubLabel);
+        container.getChildren().add(exportChoice);
         container.getChildren().add(navigation);
 
         nextButton.setOnAction(e -> {
-            // TODO: Button functionality of first step...
-            // add here.
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Export words");
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+            File file = fileChooser.showSaveDialog(root.getScene().getWindow());
+            if (file == null) {
+                return;
+            }
+
+            // a format with more columns than chosen in step 3 only scrapes the fields that are still missing
+            exportFormat = exportChoice.getValue();
+            if (scraped != null && !plan.covers(plan.with(exportFormat.fields()))) {
+                plan = plan.with(exportFormat.fields());
+                journal.plan(plan);
+
+                // scrape after the edits still being written to the store, so they are merged into the new items
+                List<VocabItem> run = new ArrayList<>(scraped.keySet());
+                ResolutionPlan exportPlan = plan;
+                ExportFormat format = exportFormat;
+                CompletableFuture.supplyAsync(() -> scrapeEngine.scrape(run, exportPlan), storeWriter)
+                        .thenAccept(rescraped -> Platform.runLater(() -> {
+                            scraped = rescraped;
+                            export(file, format);
+                        }));
+            } else {
+                export(file, exportFormat);
+            }
 
             // Move to next view
             Region nextContainer = step6(root);
@@ -274,23 +518,34 @@ public class App extends Application {
         Label stepFourLabel = new Label("Step 4");
         Label stepFourSubLabel = new Label("Verify scraped results");
 
-        // Create editable tableview
+        // Create editable tableview; rows are virtualized, so fixed-height cells keep scrolling cheap for large decks
         TableView<VocabItem> vocabTable = new TableView<>();
         vocabTable.setEditable(true);
+        vocabTable.setFixedCellSize(24);
+        VBox.setVgrow(vocabTable, Priority.ALWAYS);
+
+        // build a column per field; all but the kanji can be edited inline
+        for (VocabField field : VocabField.values()) {
+            TableColumn<VocabItem, String> column = new TableColumn<>(field.title());
+            column.setCellValueFactory(cell -> new ReadOnlyStringWrapper(field.of(cell.getValue())));
+            if (field.isEditable()) {
+                column.setCellFactory(TextFieldTableCell.forTableColumn());
+                column.setOnEditCommit(edit -> saveEdit(edit.getRowValue(), field, edit.getNewValue()));
+            } else {
+                column.setEditable(false);
+            }
+            vocabTable.getColumns().add(column);
+        }
 
-        // build table columns
-        TableColumn<VocabItem, String> kanjiColumn = new TableColumn<>("Kanji");
-        kanjiColumn.setCellValueFactory(new PropertyValueFactory<>("kanji"));
-
-        TableColumn<VocabItem, String> kanaColumn = new TableColumn<>("Kana");
-        kanaColumn.setCellValueFactory(new PropertyValueFactory<>("kana"));
-
-        vocabTable.getColumns().add(kanjiColumn);
-        vocabTable.getColumns().add(kanaColumn);
-
-        // add table items
-        vocabTable.getItems().add(new VocabItem("私", "kanaa")); //watashi
-        vocabTable.getItems().add(new VocabItem("僕", "kanoo")); //boku
+        // add table items as soon as they are scraped, in batches, rather than one FX update per item
+        Label progressLabel = new Label();
+        if (scraped != null) {
+            int total = scraped.size();
+            progressLabel.setText("Scraped 0 of " + total + " words");
+            FxBatcher<VocabItem> batcher = new FxBatcher<>(vocabTable.getItems(),
+                    size -> progressLabel.setText("Scraped " + size + " of " + total + " words"));
+            scraped.values().forEach(future -> future.thenAccept(batcher::add));
+        }
 
         ButtonBar navigation = new ButtonBar();
         Button nextButton = new Button("Nice!");
@@ -300,7 +555,8 @@ public class App extends Application {
 
         container.getChildren().add(stepFourLabel);
         container.getChildren().add(stepFourSubLabel);
-        container.getChildren().add(new VBox(vocabTable));
+        container.getChildren().add(progressLabel);
+        container.getChildren().add(vocabTable);
         container.getChildren().add(navigation);
 
         nextButton.setOnAction(e -> {
@@ -345,17 +601,19 @@ public class App extends Application {
         CheckBox audioForvo = new CheckBox("Use audio from Forvo");
         CheckBox audioOJAD = new CheckBox("Use (generated) audio from OJAD");
 
-        GridPane internetPane = new GridPane();
+        // only the fields the export format needs are scraped
+        Label exportLabel = new Label("Export as:");
+        ChoiceBox<ExportFormat> exportChoice = new ChoiceBox<>();
+        exportChoice.getItems().addAll(ExportFormat.values());
+        exportChoice.setValue(exportFormat);
 
-        Label  noInternetLabel = null;
+        GridPane internetPane = new GridPane();
 
-        if (internetAvailable()) {
-            noInternetLabel = new Label("Internet is available!");
-        } else {
-            noInternetLabel = new Label("Internet is NOT available at the moment...");
-        }
+        Label noInternetLabel = new Label();
+        showConnectivity(noInternetLabel);
 
         Button retryInternetButton = new Button("Retry Connection");
+        retryInternetButton.setOnAction(e -> showConnectivity(noInternetLabel));
         internetPane.add(noInternetLabel, 0, 0);
         internetPane.add(retryInternetButton, 0, 1);
 
@@ -374,12 +632,21 @@ public class App extends Application {
         container.getChildren().add(sentenceTatoeba);
         container.getChildren().add(audioForvo);
         container.getChildren().add(audioOJAD);
+        container.getChildren().add(exportLabel);
+        container.getChildren().add(exportChoice);
         container.getChildren().add(internetPane);
         container.getChildren().add(navigation);
 
         nextButton.setOnAction(e -> {
-            // TODO: Button functionality of third step...
-            // add here.
+            // Start scraping what the export format needs; results are shown in the next step as they arrive
+            exportFormat = exportChoice.getValue();
+            plan = new ResolutionPlan(
+                    exportFormat.fields(),
+                    kanaJisho.isSelected(),
+                    sentenceTatoeba.isSelected(),
+                    audioForvo.isSelected()
+            );
+            startRun();
 
             // Move to next view
             Region nextContainer = step4(root);
@@ -417,22 +684,30 @@ public class App extends Application {
         Label stepTwoSubLabel = new Label("Check parsed words!");
         Label pressDelete = new Label("Press the 'delete' button to remove incorrectly parsed words.");
 
-        ListView<String> parsedWordsList = new ListView<>();
+        ListView<VocabItem> parsedWordsList = new ListView<>();
         parsedWordsList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        this.parsedWordsList = parsedWordsList;
+
+        // Show every word with the number of times it occurs
+        parsedWordsList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(VocabItem word, boolean empty) {
+                super.updateItem(word, empty);
+                setText(empty || word == null ? null : word.getKanji() + " (" + extractor.count(word) + ")");
+            }
+        });
 
-        // Add all words to the list
-        words.stream().map(VocabItem::getKanji).forEach(kanji -> parsedWordsList.getItems().add(kanji));
-        Collections.sort(parsedWordsList.getItems());
+        // Add all words to the list, most frequent first
+        parsedWordsList.getItems().addAll(words);
+        parsedWordsList.getItems().sort(extractor.byFrequency());
 
         // Allow deleting of words
         parsedWordsList.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
             if (parsedWordsList.getItems().size() != 1) {
                 if (event.getCode().equals(KeyCode.DELETE)) {
-                    List<String> itemsToDelete = parsedWordsList.getSelectionModel().getSelectedItems();
-
-                    for (String itemToDelete : itemsToDelete) {
-                        parsedWordsList.getItems().removeAll(itemToDelete);
-                    }
+                    List<VocabItem> itemsToDelete = new ArrayList<>(parsedWordsList.getSelectionModel().getSelectedItems());
+                    words.removeAll(itemsToDelete);
+                    parsedWordsList.getItems().removeAll(itemsToDelete);
                 }
             }
         });
@@ -463,11 +738,7 @@ public class App extends Application {
 
         previousButton.setOnAction(e -> {
             // TODO: Undo from 2 to 1
-            List<String> itemsToDelete = parsedWordsList.getItems();
-
-            for (String itemToDelete : itemsToDelete) {
-                parsedWordsList.getItems().removeAll(itemToDelete);
-            }
+            parsedWordsList.getItems().clear();
 
             // Move to previous view
             Region nextContainer = step1(root);
@@ -547,23 +818,20 @@ public class App extends Application {
             if (urlCheckbox.isSelected()) {
                 throw new UnsupportedOperationException("Scraping from URL for lyrics is not yet implemented.");
             } else if (localFileCheckbox.isSelected()) {
-                try {
-                    String unparsedLyrics = Files.lines(Paths.get(localFileTextfield.getText()))
-                            .collect(Collectors.toList())
-                            .toString();
-
-                    addParsedWordsToList(unparsedLyrics);
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
-//                01:23:51.144 [JavaFX Application Thread] - DEBUG com.dbarenholz.asvc.App - Added word:  [
-//                01:23:51.144 [JavaFX Application Thread] - DEBUG com.dbarenholz.asvc.App - Added word:  ]
-//                01:23:51.140 [JavaFX Application Thread] - DEBUG com.dbarenholz.asvc.App - Added word:  　
-
-//                throw new UnsupportedOperationException("Retrieving text from local file is not yet implemented.");
+                // Stream the file on a background thread; step 2 shows its words as they are parsed
+                Path lyricsFile = Paths.get(localFileTextfield.getText());
+                Thread reader = new Thread(() -> {
+                    try {
+                        extractor.extract(lyricsFile, StandardCharsets.UTF_8);
+                    } catch (IOException ex) {
+                        logger.warn("Cannot read lyrics from {}: {}", lyricsFile, ex.getMessage());
+                    }
+                }, "asvc-file-reader");
+                reader.setDaemon(true);
+                reader.start();
             } else if (lyricsCheckbox.isSelected()) {
                 String unparsedLyrics = lyrics.getText();
-                addParsedWordsToList(unparsedLyrics);
+                extractor.extract(unparsedLyrics);
             } else {
                 logger.info("None of the checkboxes are selected. This should not happen.");
             }
@@ -598,6 +866,8 @@ public class App extends Application {
         stage.setScene(scene);
         stage.setTitle(Settings.applicationTitle);
         stage.show();
+
+        resumeInterruptedRun(root);
     }
 
     // == Dev Method == //
@@ -627,13 +897,14 @@ public class App extends Application {
 
         // Init the entire application
         initialiseApplication();
+        Metrics.register();
 
         // Create (and show) the GUI.
         createGUI(applicationStage);
 
-        // Log closing of application
+        // Close the application, keeping the progress of an unfinished run
         applicationStage.setOnCloseRequest(event -> {
-            logger.info("Closing application...");
+            shutdown();
             System.exit(0);
         });
 
@@ -642,9 +913,20 @@ public class App extends Application {
     /**
      * Java's {@code main} method. Used to launch application.
      *
-     * @param arguments command-line arguments (not used)
+     * @param arguments command-line arguments; {@code --service} runs the deck-building service instead of the GUI
      */
     public static void main(String[] arguments) {
+        if (Arrays.asList(arguments).contains("--service")) {
+            logger.info("Starting service...");
+            try {
+                DeckService.serve();
+            } catch (IOException e) {
+                logger.fatal("Cannot start service: {}", e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
         logger.info("Starting application...");
         try {
             launch(arguments);
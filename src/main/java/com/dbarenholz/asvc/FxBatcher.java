@@ -0,0 +1,69 @@
+package com.dbarenholz.asvc;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * Adds items that arrive on background threads (e.g. scraped words) to an observable list on the JavaFX thread.
+ *
+ * Rather than a {@link Platform#runLater(Runnable)} per item, which floods the FX thread when thousands of items
+ * complete per second, items are queued, and at most one drain is scheduled at a time. A drain adds everything queued
+ * by then with a single {@link ObservableList#addAll(java.util.Collection)}, i.e. a single change event for the table
+ * showing the list.
+ *
+ * @param <T> type of the items
+ */
+class FxBatcher<T> {
+
+    private final ObservableList<T> target;
+    private final IntConsumer onDrain;
+    private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Creates a batcher.
+     *
+     * @param target  list to add items to, on the FX thread
+     * @param onDrain called on the FX thread after every drain, with the size of the list
+     */
+    FxBatcher(ObservableList<T> target, IntConsumer onDrain) {
+        this.target = target;
+        this.onDrain = onDrain;
+    }
+
+    /**
+     * Queues an item to be added to the list. May be called from any thread.
+     *
+     * @param item item to add
+     */
+    void add(T item) {
+        pending.add(item);
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drain);
+        }
+    }
+
+    /**
+     * Helper method for {@link #add(Object)}; adds all queued items to the list. Runs on the FX thread.
+     */
+    private void drain() {
+        // clear the flag first: items queued while draining schedule another drain
+        scheduled.set(false);
+
+        List<T> batch = new ArrayList<>();
+        for (T item = pending.poll(); item != null; item = pending.poll()) {
+            batch.add(item);
+        }
+        if (!batch.isEmpty()) {
+            target.addAll(batch);
+            onDrain.accept(target.size());
+        }
+    }
+}
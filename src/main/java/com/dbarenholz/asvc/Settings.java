@@ -24,19 +24,58 @@ public class Settings {
     final static String iniPath = homeDirectory + FS + applicationTitle + FS + "settings.ini";
     final static String applicationPath = homeDirectory + FS + applicationTitle;
     public static final String cachePath = applicationPath + FS + "cache";
+    public static final String vocabStorePath = applicationPath + FS + "vocab.db";
+    public static final String journalPath = applicationPath + FS + "run.journal"; // progress of the current run
+    public static final String wordHistoryPath = applicationPath + FS + "words.tsv"; // words of all tokenized songs
 
     // === exporting settings === //
     final static String ankiProfileName = "User 1";
     final static String mediaPath = System.getenv("APPDATA") + FS + "Anki2" + FS + ankiProfileName + FS + "collection.media";
     public static String delim = ",";
 
+    // === parsing settings === //
+    final static int tokenizeThreads = Runtime.getRuntime().availableProcessors(); // chunks tokenized concurrently
+    final static int maxScrapedWords = Integer.MAX_VALUE; // lower to only scrape the most frequent words of a corpus
+    public static final String romajiSystem = System.getProperty("asvc.romaji", "HEPBURN"); // or KUNREI, NIHON
+    public static final String romajiLongVowels = System.getProperty("asvc.longVowels", "MACRON"); // or AS_WRITTEN
+    public static final String keyFolding = // folding of cache keys and word identity, see parsing.KeyNormalizer
+            System.getProperty("asvc.keyFolding", "NFKC,KANA,ITERATION");
+
     // === scraping settings === //
     public static final String agent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/69.0.3497.100 Safari/537.36";
     public static final int timeout = 10000;
     public static final int replaceAfter = 10000; // 10ms
-    public static final String jisho = "https://jisho.org/";
-    public static final String forvo = "https://forvo.com/";
-    public static final String tatoeba = "https://tatoeba.org/";
+    public static final int scrapeThreads = Integer.getInteger("asvc.scrapeThreads", 4); // concurrent downloads for batch lookups
+    public static final long wordDeadline = 15000;  // 15s; budget of all requests needed for a single word
+    public static final long batchDeadline = 120000; // 2 min; after this, words are shown with whatever was scraped
+    public static final int hedgeMinSamples = 20;   // requests to measure before hedging slow ones
+    public static final int hedgePercent = 10;      // at most this percentage of requests to a source is a hedge
+    public static final int probeTimeout = 3000;   // connectivity probes give up sooner than downloads
+    public static final long connectivityTTL = 30000; // 30s; connectivity probe results are trusted this long
+    public static final int breakerFailures = 5;    // consecutive failed lookups after which a source is skipped
+    public static final long breakerCooldown = 60000; // 1 min; skipped sources get a trial lookup after this long
+    public static final long revalidateAfter = 30L * 24 * 60 * 60 * 1000; // 30 days; older cached pages are revalidated
+
+    // === warm-up settings === //
+    public static final String warmUpList = System.getProperty("asvc.warmUpList"); // extra frequency list to prefetch
+    public static final int warmUpWords = 5000;     // most frequent words to prefetch
+    public static final long warmUpDelay = 2000;    // 2s; pause after every prefetched page, to go easy on the sources
+
+    // base URLs of the scraped websites; overridable (e.g. -Dasvc.jisho=http://localhost:8080/jisho.org/) to replay
+    // recorded fixtures, see com.dbarenholz.asvc.replay
+    public static final String jisho = System.getProperty("asvc.jisho", "https://jisho.org/");
+    public static final String forvo = System.getProperty("asvc.forvo", "https://forvo.com/");
+    public static final String forvoAudio = System.getProperty("asvc.forvoAudio", "https://audio00.forvo.com/audios/mp3/");
+    public static final String tatoeba = System.getProperty("asvc.tatoeba", "https://tatoeba.org/");
+    public static final String recordPath = System.getProperty("asvc.record"); // if set, record all responses here
+
+    // === service settings === //
+    public static final int servicePort = Integer.getInteger("asvc.servicePort", 8765); // port of --service mode
+    public static final int serviceTokenizeLimit = Runtime.getRuntime().availableProcessors(); // concurrent /tokenize
+    public static final int serviceLookupLimit = 64;       // concurrent /lookup requests
+    public static final int serviceDeckLimit = 2;          // concurrent /deck requests, each scraping many words
+    public static final int serviceMediaLimit = 64;        // concurrent /media requests, each reading a cached file
+    public static final int serviceMaxBody = 16 * 1024 * 1024; // 16 MB; larger request bodies are refused
 
     // TODO: Implement method to write all settings to ini file
     /**
@@ -70,6 +109,15 @@ public class Settings {
         ret += "--> iniPath: '" + iniPath + "'\n";
         ret += "--> applicationPath: '" + applicationPath + "'\n";
         ret += "--> cachePath: '" + cachePath + "'\n";
+        ret += "--> vocabStorePath: '" + vocabStorePath + "'\n";
+        ret += "--> journalPath: '" + journalPath + "'\n";
+        ret += "--> wordHistoryPath: '" + wordHistoryPath + "'\n";
+        ret += "--> warmUpList: '" + warmUpList + "'\n";
+        ret += "--> jisho: '" + jisho + "'\n";
+        ret += "--> forvo: '" + forvo + "'\n";
+        ret += "--> forvoAudio: '" + forvoAudio + "'\n";
+        ret += "--> tatoeba: '" + tatoeba + "'\n";
+        ret += "--> recordPath: '" + recordPath + "'\n";
         ret += "--> ankiProfileName: '" + ankiProfileName + "'\n";
         ret += "--> mediaPath: '" + mediaPath + "'";
         return ret;
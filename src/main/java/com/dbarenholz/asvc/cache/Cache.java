@@ -1,23 +1,44 @@
 package com.dbarenholz.asvc.cache;
 
-import com.dbarenholz.asvc.App;
 import com.dbarenholz.asvc.Settings;
-import com.dbarenholz.asvc.exceptions.DownloadException;
+import com.dbarenholz.asvc.metrics.LatencyHistogram;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.parsing.KeyNormalizer;
+import com.dbarenholz.asvc.replay.FixtureArchive;
+import com.dbarenholz.asvc.scraping.ScrapeOutcome;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 /**
- * A class implementing hard drive-based caching methods.
+ * A class implementing hard drive-based caching methods, on top of a {@link CacheStore}.
  *
  * Webscrapers from {@link com.dbarenholz.asvc.scraping} extend this class.
  */
@@ -25,6 +46,112 @@ public abstract class Cache {
 
     private static final Logger logger = LogManager.getLogger(); // logger
 
+    // metadata entry holding the URL a page was downloaded from
+    private static final String URL_METADATA = "url";
+
+    // Shared pool on which all cache misses are downloaded. Daemon threads, so closing the application is not blocked.
+    private static final ExecutorService network = Executors.newFixedThreadPool(Settings.scrapeThreads, runnable -> {
+        Thread thread = new Thread(runnable, "asvc-network");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Pool on which lookups of cached words run, so that parsing cached pages does not block the caller (e.g. the FX
+    // thread), nor waits behind downloads on the network pool.
+    private static final ExecutorService local = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "asvc-cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Pool on which hedged requests run, while the network thread that needs the response waits for the first one.
+    private static final ExecutorService hedging = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "asvc-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // time spent writing pages to disk, shared by all scrapers
+    private static final LatencyHistogram writeTime = Metrics.histogram("cache.write");
+
+    // archive all responses are recorded to, if recording (see Settings.recordPath)
+    private static final FixtureArchive recorder = Settings.recordPath == null
+            ? null
+            : new FixtureArchive(Paths.get(Settings.recordPath));
+
+    // storage of all downloaded pages and files
+    protected final CacheStore store = CacheStore.getStore();
+
+    // reachability of all websites, to avoid waiting for downloads that cannot succeed
+    private static final Connectivity connectivity = Connectivity.getConnectivity();
+
+    // fails lookups of this source fast while it keeps failing
+    private final CircuitBreaker breaker;
+
+    // page identifiers of the pages being revalidated on the network pool
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    // per source metrics
+    private final String source;
+    private final String host;
+    private final LongAdder queued;
+    private final LongAdder hedges;
+    private final LongAdder hedgeWins;
+    private final LongAdder deadlines;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder httpErrors;
+    private final LongAdder bytesDownloaded;
+    private final LongAdder revalidations;
+    private final LongAdder notModified;
+    private final LatencyHistogram httpLatency;
+    private final LatencyHistogram parseTime;
+
+    /**
+     * Creates a cache for a single source, whose reachability is not monitored.
+     *
+     * @param source identifier of the scraped website, used to name its metrics (e.g. {@code lyrical-nonsense})
+     */
+    protected Cache(String source) {
+        this(source, null);
+    }
+
+    /**
+     * Creates a cache for a single source. While {@code host} is unreachable, only cached pages are served: other
+     * lookups fail immediately, or are queued until the host is back in case of a {@link #batch batch}.
+     *
+     * @param source identifier of the scraped website, used to name its metrics (e.g. {@code jisho})
+     * @param host   base URL of the scraped website (e.g. {@link Settings#jisho}), or {@code null} to not monitor it
+     */
+    protected Cache(String source, String host) {
+        this.source = source;
+        this.host = host;
+        this.breaker = new CircuitBreaker(source);
+        this.queued = Metrics.counter("cache.queued." + source);
+        this.hedges = Metrics.counter("http.hedge." + source);
+        this.hedgeWins = Metrics.counter("http.hedge.win." + source);
+        this.deadlines = Metrics.counter("http.deadline." + source);
+        this.hits = Metrics.counter("cache.hit." + source);
+        this.misses = Metrics.counter("cache.miss." + source);
+        this.httpErrors = Metrics.counter("http.error." + source);
+        this.bytesDownloaded = Metrics.counter("http.bytes." + source);
+        this.revalidations = Metrics.counter("cache.revalidate." + source);
+        this.notModified = Metrics.counter("cache.notmodified." + source);
+        this.httpLatency = Metrics.histogram("http.latency." + source);
+        this.parseTime = Metrics.histogram("parse.time." + source);
+    }
+
+    /**
+     * A single synchronous lookup for a word, such as {@code JishoScraper::retrieveMeaning}.
+     *
+     * @param <T> type of the looked up value
+     */
+    @FunctionalInterface
+    protected interface Lookup<T> {
+        ScrapeOutcome<T> apply(String wordString);
+    }
+
     /**
      * Attempts to connect to {@code URL} and receive a HTTP(S) response.
      *
@@ -33,11 +160,216 @@ public abstract class Cache {
      * @throws IOException if something went wrong with connecting to the website.
      */
     public Connection.Response getHTTPResponse(String URL) throws IOException {
+        return getHTTPResponse(URL, Collections.emptyMap());
+    }
+
+    /**
+     * Attempts to connect to {@code URL} and receive a HTTP(S) response, sending additional request headers.
+     *
+     * @param URL     website URL to connect to (e.g. http://www.google.com)
+     * @param headers request headers to send, e.g. {@code If-None-Match}
+     * @return A HTTP(S) response from {@code URL}
+     * @throws IOException if something went wrong with connecting to the website.
+     */
+    public Connection.Response getHTTPResponse(String URL, Map<String, String> headers) throws IOException {
+        Deadline deadline = Deadline.current();
+        if (deadline.expired()) {
+            deadlines.increment();
+            throw new Deadline.ExceededException("Deadline passed before connecting to " + URL);
+        }
+
+        long delay = hedgeDelayMillis();
+        if (delay == 0 || delay >= Math.min(Settings.timeout, deadline.remainingMillis())) {
+            return execute(URL, headers, timeoutMillis(deadline));
+        }
+
+        // Hedged request: if the first request is slower than most, a second, identical one is sent, and whichever
+        // responds first wins. Both are plain GETs, so sending one twice is harmless.
+        CompletableFuture<Connection.Response> primary = attempt(URL, headers, timeoutMillis(deadline));
+        try {
+            return primary.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            hedges.increment();
+            logger.debug("Hedging request to {} after {} ms", URL, delay);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + URL);
+        }
+
+        CompletableFuture<Connection.Response> hedge = attempt(URL, headers, timeoutMillis(deadline));
+        CompletableFuture<Connection.Response> first = firstSuccessful(primary, hedge);
+        try {
+            Connection.Response response = first.get();
+            if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() == response) {
+                hedgeWins.increment();
+            }
+            return response;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + URL);
+        }
+    }
+
+    /**
+     * Helper method for {@link #getHTTPResponse(String, Map)}; sends a single request, and records its metrics.
+     *
+     * @param URL           website URL to connect to
+     * @param headers       request headers to send
+     * @param timeoutMillis connect and read timeout of the request
+     * @return A HTTP(S) response from {@code URL}
+     * @throws IOException if something went wrong with connecting to the website.
+     */
+    private Connection.Response execute(String URL, Map<String, String> headers, int timeoutMillis)
+            throws IOException {
         logger.debug("Connecting to {}...", URL);
-        return Jsoup.connect(URL)
-                .userAgent(Settings.agent)
-                .timeout(Settings.timeout)
-                .execute();
+        long start = System.nanoTime();
+
+        try {
+            Connection.Response response = Jsoup.connect(URL)
+                    .userAgent(Settings.agent)
+                    .timeout(timeoutMillis)
+                    .headers(headers)
+                    .execute()
+                    .bufferUp();
+            recordDownload(start, response.bodyAsBytes().length);
+            Metrics.counter("http.status." + source + "." + response.statusCode()).increment();
+            record(URL, response.statusCode(), response.contentType(), response.bodyAsBytes());
+            return response;
+        } catch (HttpStatusException e) {
+            httpLatency.recordSince(start);
+            Metrics.counter("http.status." + source + "." + e.getStatusCode()).increment();
+            record(URL, e.getStatusCode(), null, new byte[0]);
+            throw e;
+        } catch (IOException e) {
+            httpErrors.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method for {@link #getHTTPResponse(String, Map)}; sends a single request on the hedging pool.
+     *
+     * @param URL           website URL to connect to
+     * @param headers       request headers to send
+     * @param timeoutMillis connect and read timeout of the request
+     * @return A future response, completed exceptionally with the {@link IOException} if the request fails.
+     */
+    private CompletableFuture<Connection.Response> attempt(String URL, Map<String, String> headers, int timeoutMillis) {
+        CompletableFuture<Connection.Response> attempt = new CompletableFuture<>();
+        hedging.execute(() -> {
+            try {
+                attempt.complete(execute(URL, headers, timeoutMillis));
+            } catch (IOException | RuntimeException e) {
+                attempt.completeExceptionally(e);
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * Helper method to compute how long to wait for a request before hedging it: the 95th percentile of the latency
+     * of this source. Hedging is off until enough requests have been measured, and while more than
+     * {@link Settings#hedgePercent} percent of all requests to this source were hedges, to not overload it.
+     *
+     * @return delay in milliseconds, or {@code 0} to not hedge
+     */
+    private long hedgeDelayMillis() {
+        long requests = httpLatency.count();
+        if (requests < Settings.hedgeMinSamples || hedges.sum() * 100 >= requests * Settings.hedgePercent) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(httpLatency.percentile(95)));
+    }
+
+    /**
+     * Computes the connect and read timeout of a request that does not go through {@link #getHTTPResponse(String)},
+     * such as a download of a file, within the {@link Deadline#current() current deadline}.
+     *
+     * @param URL URL about to be requested, for the message of the exception
+     * @return timeout of a request made now: {@link Settings#timeout}, or less if the deadline is sooner
+     * @throws Deadline.ExceededException if the deadline has already passed
+     */
+    protected int requestTimeoutMillis(String URL) throws Deadline.ExceededException {
+        Deadline deadline = Deadline.current();
+        if (deadline.expired()) {
+            deadlines.increment();
+            throw new Deadline.ExceededException("Deadline passed before connecting to " + URL);
+        }
+        return timeoutMillis(deadline);
+    }
+
+    /**
+     * @param deadline deadline of the current work
+     * @return timeout of a request made now: {@link Settings#timeout}, or less if the deadline is sooner
+     */
+    private static int timeoutMillis(Deadline deadline) {
+        return (int) Math.max(1, Math.min(Settings.timeout, deadline.remainingMillis()));
+    }
+
+    /**
+     * @param a first future
+     * @param b second future
+     * @param <T> type of the futures
+     * @return A future holding the first successful result of {@code a} and {@code b}, or the last failure if both fail.
+     */
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> future : Arrays.asList(a, b)) {
+            future.whenComplete((value, e) -> {
+                if (e == null) {
+                    first.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    first.completeExceptionally(e);
+                }
+            });
+        }
+        return first;
+    }
+
+    /**
+     * @param e exception thrown by a future request
+     * @return the {@link IOException} that failed the request
+     */
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Records a response into the fixture archive, if recording.
+     *
+     * @param URL         requested URL
+     * @param status      HTTP status code of the response
+     * @param contentType content type of the response, or {@code null} if unknown
+     * @param body        body of the response
+     * @see FixtureArchive
+     */
+    protected static void record(String URL, int status, String contentType, byte[] body) {
+        if (recorder != null) {
+            recorder.record(URL, status, contentType, body);
+        }
+    }
+
+    /**
+     * Records the metrics of a completed download from this source.
+     *
+     * @param startNanos start of the download, as given by {@link System#nanoTime()}
+     * @param bytes      number of bytes downloaded
+     */
+    protected void recordDownload(long startNanos, long bytes) {
+        httpLatency.recordSince(startNanos);
+        bytesDownloaded.add(bytes);
     }
 
     /**
@@ -45,79 +377,381 @@ public abstract class Cache {
      *
      * @param response       HTTP(S) response to check
      * @param pageIdentifier unique identifier for which page was requested
-     * @throws DownloadException when something went wrong during downloading (e.g. reponse code is not 200)
+     * @return A found outcome if the page was saved or refreshed; otherwise why not (e.g. response code is not 200).
      */
-    public void checkResponse(Connection.Response response, String pageIdentifier) throws DownloadException {
+    public ScrapeOutcome<Void> checkResponse(Connection.Response response, String pageIdentifier) {
         // no response
         if (response == null) {
-            throw new DownloadException("Cannot retrieve response from website with identifier: ", pageIdentifier);
+            return ScrapeOutcome.transientError("No response from website for " + pageIdentifier);
         }
 
         // response OK
         if (response.statusCode() == 200) {
             try {
-                savePage(response.parse(), pageIdentifier);
+                savePage(response, pageIdentifier);
+            } catch (IOException e) {
+                return ScrapeOutcome.transientError("Cannot save " + pageIdentifier + ": " + e.getMessage());
+            }
+        } else if (response.statusCode() == 304) {
+            // cached page is still current: only its metadata is updated
+            notModified.increment();
+            try {
+                store.refresh(pageIdentifier, validatorsOf(response));
             } catch (IOException e) {
-                throw new DownloadException(
-                        "Cannot parse response from website.",
-                        pageIdentifier,
-                        e
-                );
+                return ScrapeOutcome.transientError("Cannot refresh " + pageIdentifier + ": " + e.getMessage());
             }
         } else {
             // response not OK
-            throw new DownloadException(
-                    "Something went wrong with retrieving the response.",
-                    pageIdentifier,
-                    response
-            );
+            return outcomeOf(response.statusCode(), pageIdentifier);
         }
+        return ScrapeOutcome.found(null);
     }
 
     /**
-     * Saves a page to disk located at {@code cachePath}.
+     * Helper method to classify an HTTP error status: a 404 or 410 means the website has no page for the word, a 408,
+     * 429 or 5xx may go away by itself, and anything else (e.g. a 403) will not.
      *
-     * @param webpage  the page to save
-     * @param fileName the name it should have
-     * @throws IOException if an I/O error occurs writing to or creating the file
+     * @param status         HTTP status code of the response
+     * @param pageIdentifier unique identifier for which page was requested
+     * @param <T>            type of the looked up value
+     * @return The outcome of a request answered with {@code status}.
      */
-    private void savePage(final Document webpage, final String fileName) throws IOException {
-        final Path path = Paths.get(Settings.cachePath + fileName + ".html");
-        Files.write(path, webpage.outerHtml().getBytes());
-        logger.debug("Saving page to file {}...", path.getFileName().toString());
+    private static <T> ScrapeOutcome<T> outcomeOf(int status, String pageIdentifier) {
+        String reason = "HTTP " + status + " for " + pageIdentifier;
+        if (status == 404 || status == 410) {
+            return ScrapeOutcome.notFound(reason);
+        }
+        if (status == 408 || status == 429 || status >= 500) {
+            return ScrapeOutcome.transientError(reason);
+        }
+        return ScrapeOutcome.permanentError(reason);
+    }
+
+    /**
+     * Saves a page to the cache store, together with its URL and the headers needed to revalidate it later.
+     *
+     * @param response the response holding the page to save
+     * @param fileName the key it should be stored under
+     * @throws IOException if the page cannot be parsed, or an I/O error occurs writing to or creating the entry
+     */
+    private void savePage(final Connection.Response response, final String fileName) throws IOException {
+        Document webpage = response.parse();
+        Map<String, String> metadata = validatorsOf(response);
+        metadata.put(URL_METADATA, response.url().toString());
+
+        long start = System.nanoTime();
+        store.put(fileName, webpage.outerHtml().getBytes(StandardCharsets.UTF_8), metadata);
+        writeTime.recordSince(start);
+        logger.debug("Saved page {}", fileName);
+    }
+
+    /**
+     * Helper method to collect the validators of a response, i.e. the headers that allow a conditional request later.
+     *
+     * @param response HTTP(S) response
+     * @return The {@code ETag} and {@code Last-Modified} headers of {@code response}, insofar present.
+     */
+    private static Map<String, String> validatorsOf(Connection.Response response) {
+        Map<String, String> validators = new LinkedHashMap<>();
+        if (response.hasHeader("ETag")) {
+            validators.put("etag", response.header("ETag"));
+        }
+        if (response.hasHeader("Last-Modified")) {
+            validators.put("last-modified", response.header("Last-Modified"));
+        }
+        return validators;
+    }
+
+    /**
+     * Revalidates a cached page with a conditional request, if it is older than {@link Settings#revalidateAfter}.
+     * The cached page is served as is: the request runs in the background on the network pool, where a 304 response
+     * only refreshes the metadata of the entry, and a 200 response replaces it for later lookups. If the website
+     * cannot be reached, or the refresh fails in any other way, the cached page is kept as is.
+     *
+     * @param pageIdentifier unique identifier of the cached page
+     * @param URL            website URL the page was downloaded from, or {@code null} to use the URL it was stored with
+     */
+    private void revalidateIfStale(String pageIdentifier, String URL) {
+        Map<String, String> metadata;
+        try {
+            metadata = store.metadata(pageIdentifier);
+        } catch (IOException e) {
+            return; // opening the entry deals with it
+        }
+
+        long storedAt = Long.parseLong(metadata.get(CacheStore.STORED_AT));
+        if (System.currentTimeMillis() - storedAt < Settings.revalidateAfter || !reachable()) {
+            return;
+        }
+
+        // pages stored before their URL was recorded cannot be revalidated without one
+        String pageURL = URL != null ? URL : metadata.get(URL_METADATA);
+        if (pageURL == null || !revalidating.add(pageIdentifier)) {
+            return;
+        }
+
+        Map<String, String> conditions = new LinkedHashMap<>();
+        if (metadata.containsKey("etag")) {
+            conditions.put("If-None-Match", metadata.get("etag"));
+        }
+        if (metadata.containsKey("last-modified")) {
+            conditions.put("If-Modified-Since", metadata.get("last-modified"));
+        }
+
+        revalidations.increment();
+        network.execute(() -> {
+            ScrapeOutcome<Void> revalidated;
+            try {
+                revalidated = checkResponse(getHTTPResponse(pageURL, conditions), pageIdentifier);
+            } catch (IOException | RuntimeException e) {
+                revalidated = ScrapeOutcome.transientError(e.toString());
+            } finally {
+                revalidating.remove(pageIdentifier);
+            }
+            if (!revalidated.isFound()) {
+                logger.debug("Cannot revalidate {}, keeping cached page: {}", pageIdentifier, revalidated.getReason());
+            }
+        });
     }
 
     /**
-     * Updates the internal representation of the cache.
+     * Normalizes a word for use in a page identifier, so that spellings of the same word (e.g. full-width and
+     * half-width, or katakana and hiragana) share a cache entry. Pages are still downloaded for the word as written.
      *
-     * @param file the file for which the cache needs to be updated
+     * @param wordString word as written
+     * @return The key of {@code wordString}.
+     * @see KeyNormalizer
      */
-    public void updateCache(File file) {
-        App.cache.add(file);
-        logger.debug("Added file {} to cache", file.getName());
+    protected static String keyOf(String wordString) {
+        return KeyNormalizer.getNormalizer().normalize(wordString);
     }
 
     /**
      * Checks if a page for a specific identifier has been downloaded or not.
      *
      * @param pageIdentifier unique identifier for which page was requested
-     * @return {@code true} if a file which contains {@code pageIdentifier} has not yet been downloaded, {@code false} otherwise.
+     * @return {@code true} if no page with key {@code pageIdentifier} has been downloaded yet, {@code false} otherwise.
      */
     public boolean notYetDownloaded(String pageIdentifier) {
-        return App.cache.stream()
-                .noneMatch(file -> file.getName().contains(pageIdentifier));
+        return !store.contains(pageIdentifier);
     }
 
     /**
-     * Retrieves a (cached) page with a specific identifier.
+     * Retrieves a page from cache if it exists, or otherwise downloads it from {@code URL} first.
+     * Shared implementation of {@link #retrieve(String, String)} for all scrapers.
      *
      * @param pageIdentifier unique identifier for which page was requested
-     * @return A file with the pageIdentifier if it exists, {@code null} otherwise.
+     * @param URL            website URL to download the page from when it is not yet cached, or {@code null} if the
+     *                       caller only looks up cached pages
+     * @param baseURI        URI used to resolve relative links in the page
+     * @return The page from cache, or why it cannot be retrieved.
      */
-    public File getPage(String pageIdentifier) {
-        return App.cache.stream()
-                .filter(file -> file.getName().contains(pageIdentifier))
-                .findFirst().orElse(null);
+    protected ScrapeOutcome<Document> fetch(String pageIdentifier, String URL, String baseURI) {
+        ScrapeOutcome<Void> cached;
+
+        // If data has not yet been downloaded
+        if (notYetDownloaded(pageIdentifier)) {
+            misses.increment();
+            cached = reachable()
+                    ? download(pageIdentifier, URL)
+                    : ScrapeOutcome.transientError("Source is unreachable, cannot download " + pageIdentifier);
+        } else {
+            hits.increment();
+            revalidateIfStale(pageIdentifier, URL);
+            cached = ScrapeOutcome.found(null);
+        }
+
+        ScrapeOutcome<Document> page = cached.then(v -> parse(pageIdentifier, baseURI));
+        if (page.isError() && cached.isFound() && notYetDownloaded(pageIdentifier)) {
+            // a corrupt entry has been quarantined by the store; download it once more
+            page = download(pageIdentifier, URL).then(v -> parse(pageIdentifier, baseURI));
+        }
+        return page;
+    }
+
+    /**
+     * Helper method for {@link #fetch(String, String, String)}; downloads a page into the cache store.
+     *
+     * @param pageIdentifier unique identifier for which page was requested
+     * @param URL            website URL to download the page from, or {@code null} if the caller does not know it
+     * @return A found outcome if the page was downloaded; otherwise why not, e.g. a permanent error without a URL.
+     */
+    private ScrapeOutcome<Void> download(String pageIdentifier, String URL) {
+        if (URL == null) {
+            return ScrapeOutcome.permanentError("No URL to download " + pageIdentifier + " from");
+        }
+
+        Connection.Response response;
+
+        try {
+            response = getHTTPResponse(URL);
+        } catch (HttpStatusException e) {
+            return outcomeOf(e.getStatusCode(), pageIdentifier);
+        } catch (IOException e) {
+            // not an HTTP error status: the source may have gone down, which is checked before the next download
+            if (host != null && !(e instanceof Deadline.ExceededException)) {
+                connectivity.probe(host).join();
+            }
+            return ScrapeOutcome.transientError("Cannot download " + pageIdentifier + ": " + e.getMessage());
+        }
+
+        return checkResponse(response, pageIdentifier);
+    }
+
+    /**
+     * Helper method for {@link #fetch(String, String, String)}; parses a cached page.
+     *
+     * @param pageIdentifier unique identifier for which page was requested
+     * @param baseURI        URI used to resolve relative links in the page
+     * @return The parsed page, or a transient error if the page is not cached, or cannot be read.
+     */
+    private ScrapeOutcome<Document> parse(String pageIdentifier, String baseURI) {
+        long start = System.nanoTime();
+        try (CacheStore.Entry page = store.open(pageIdentifier)) {
+            return ScrapeOutcome.found(Jsoup.parse(page.body(), String.valueOf(StandardCharsets.UTF_8), baseURI));
+        } catch (IOException e) {
+            return ScrapeOutcome.transientError("Cannot parse " + pageIdentifier + ": " + e.getMessage());
+        } finally {
+            parseTime.recordSince(start);
+        }
+    }
+
+    /**
+     * Checks if the source of this cache can be reached, without waiting for the network.
+     *
+     * @return {@code false} if the source is known to be unreachable, {@code true} otherwise.
+     */
+    protected boolean reachable() {
+        return host == null || connectivity.isReachable(host);
+    }
+
+    /**
+     * Performs {@code lookup} for every word in {@code wordStrings}.
+     * Words for which {@code cached} holds are looked up at once on a pool of their own; all others are scheduled
+     * on the shared network pool, so that callers can consume results as they arrive. While the source is unreachable,
+     * the others are queued instead, and only scheduled once it is back.
+     *
+     * The {@link Deadline#current() current deadline} is the deadline of the whole batch. Every scheduled lookup runs
+     * with the earliest of that deadline and {@link Settings#wordDeadline}, and is not started at all once the deadline
+     * of the batch has passed.
+     *
+     * @param wordStrings words to look up
+     * @param cached      decides whether all pages needed for a word are already cached
+     * @param lookup      synchronous lookup for a single word
+     * @param <T>         type of the looked up value
+     * @return A future outcome per word, in the iteration order of {@code wordStrings}. The futures never complete
+     * exceptionally.
+     */
+    protected <T> Map<String, CompletableFuture<ScrapeOutcome<T>>> batch(Collection<String> wordStrings,
+                                                                         Predicate<String> cached,
+                                                                         Lookup<T> lookup) {
+        Map<String, CompletableFuture<ScrapeOutcome<T>>> results = new LinkedHashMap<>();
+        Deadline deadline = Deadline.current();
+
+        for (String wordString : wordStrings) {
+            if (results.containsKey(wordString)) {
+                continue;
+            }
+
+            CompletableFuture<ScrapeOutcome<T>> future = new CompletableFuture<>();
+            if (cached.test(wordString)) {
+                local.execute(() -> future.complete(run(lookup, wordString)));
+            } else {
+                schedule(future, lookup, wordString, deadline);
+            }
+            results.put(wordString, future);
+        }
+
+        logger.debug("Scheduled batch of {} words", results.size());
+        return results;
+    }
+
+    /**
+     * Helper method for {@link #batch(Collection, Predicate, Lookup)}; runs a lookup on the network pool once the source
+     * is reachable, within its deadline. A lookup that fails because the source went down in the meantime is queued
+     * again. Lookups pass the {@link CircuitBreaker} of the source, and fail immediately while it is open.
+     *
+     * @param future     future to complete with the outcome of {@code lookup}
+     * @param lookup     lookup to run
+     * @param wordString word to look up
+     * @param deadline   deadline of the batch
+     * @param <T>        type of the looked up value
+     */
+    private <T> void schedule(CompletableFuture<ScrapeOutcome<T>> future, Lookup<T> lookup, String wordString,
+                              Deadline deadline) {
+        Runnable task = () -> network.execute(() -> {
+            if (deadline.expired()) {
+                future.complete(ScrapeOutcome.transientError("Deadline passed before looking up " + wordString));
+                return;
+            }
+
+            if (!breaker.allow()) {
+                future.complete(ScrapeOutcome.transientError("Source keeps failing, skipped " + wordString));
+                return;
+            }
+
+            Deadline wordDeadline = deadline.min(Deadline.after(Settings.wordDeadline));
+            ScrapeOutcome<T> outcome = wordDeadline.call(() -> run(lookup, wordString));
+
+            if (!outcome.isError()) {
+                breaker.success();
+            } else if (!reachable()) {
+                // the connectivity monitor takes care of a source that is down as a whole
+                breaker.release();
+                schedule(future, lookup, wordString, deadline);
+                return;
+            } else if (wordDeadline.expired()) {
+                breaker.release();
+            } else {
+                breaker.failure();
+            }
+            future.complete(outcome);
+        });
+
+        if (host == null) {
+            task.run();
+        } else {
+            if (!reachable()) {
+                queued.increment();
+            }
+            connectivity.whenReachable(host, task);
+        }
+    }
+
+    /**
+     * Helper method for {@link #batch(Collection, Predicate, Lookup)}; runs a lookup, turning a bug in it into a
+     * permanent error rather than an exception.
+     *
+     * @param lookup     lookup to run
+     * @param wordString word to look up
+     * @param <T>        type of the looked up value
+     * @return The outcome of {@code lookup}.
+     */
+    private static <T> ScrapeOutcome<T> run(Lookup<T> lookup, String wordString) {
+        try {
+            return lookup.apply(wordString);
+        } catch (RuntimeException e) {
+            logger.warn("Lookup of {} failed", wordString, e);
+            return ScrapeOutcome.permanentError("Lookup of " + wordString + " failed: " + e);
+        }
+    }
+
+    /**
+     * Selects the first element matching a CSS query in a page. Scrapers use this instead of
+     * {@code select(cssQuery).first()}, so that a page without the element (e.g. because the markup of the website
+     * changed) fails the lookup like a failed download, rather than with a {@link NullPointerException}.
+     *
+     * @param page           page to select from
+     * @param cssQuery       CSS query of the element
+     * @param pageIdentifier unique identifier of the page, for the reason of the error
+     * @return The first matching element, or a permanent error if no element matches {@code cssQuery}.
+     */
+    protected static ScrapeOutcome<Element> first(Document page, String cssQuery, String pageIdentifier) {
+        Element element = page.selectFirst(cssQuery);
+        if (element == null) {
+            return ScrapeOutcome.permanentError("No " + cssQuery + " found on " + pageIdentifier);
+        }
+        return ScrapeOutcome.found(element);
     }
 
     /**
@@ -126,8 +760,7 @@ public abstract class Cache {
      *
      * @param pageIdentifier page for which a Document should be retrieved.
      * @param wordString     the word for which a Document should be retrieved.
-     * @return A document from cache.
-     * @throws DownloadException if something goes wrong when downloading
+     * @return A document from cache, or why it cannot be retrieved.
      */
-    public abstract Document retrieve(String pageIdentifier, String wordString) throws DownloadException;
+    public abstract ScrapeOutcome<Document> retrieve(String pageIdentifier, String wordString);
 }
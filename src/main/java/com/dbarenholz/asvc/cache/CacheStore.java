@@ -0,0 +1,579 @@
+package com.dbarenholz.asvc.cache;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk storage of cached pages and audio, addressed by content key.
+ *
+ * Every entry is stored under the SHA-1 of its key (e.g. "jisho vocabulary page of 私"), sharded over two levels of
+ * subdirectories by the first four hex digits: {@code cache/ab/cd/abcd...}. Lookups are a single file existence check,
+ * and no directory ever holds more than a few hundred files, no matter how large the cache grows.
+ *
+ * Every entry file starts with a small header holding the original key and a map of metadata, followed by the body:
+ * <pre>
+ *     int    magic ({@link #MAGIC})
+ *     byte   version ({@link #VERSION})
+ *     UTF    key
+ *     short  number of metadata entries, followed by that many (UTF name, UTF value) pairs
+ *     byte[] body, up to the end of the file
+ * </pre>
+ *
+ * Bodies are compressed transparently: the metadata entry {@value #CODEC} records how the body is stored
+ * ({@value #DEFLATE} or {@value #IDENTITY}), and {@link Entry#body()} always streams the original bytes.
+ * Entries without a codec, e.g. migrated ones, are stored as is.
+ *
+ * Entries are written to a temporary file in their shard directory, and atomically renamed into place once complete,
+ * so a crash never leaves a truncated entry behind. The metadata entry {@value #CHECKSUM} holds the CRC-32 of the stored
+ * body; entries that fail it are moved to the {@value #QUARANTINE} directory, both when opened and by the recovery scan
+ * that {@link #initialise()} starts in the background.
+ *
+ * The metadata entry {@value #STORED_AT} holds when the entry was stored or last {@link #refresh(String, Map) refreshed},
+ * in milliseconds since the epoch.
+ */
+public class CacheStore {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private static final CacheStore csInstance = new CacheStore(Paths.get(Settings.cachePath));
+
+    private CacheStore(Path root) {
+        this.root = root;
+    }
+
+    public static CacheStore getStore() {
+        return csInstance;
+    }
+
+    /**
+     * Creates a store at another root than the cache, e.g. for a fixture archive.
+     * Unlike the cache, it is not migrated or scanned for corrupt entries.
+     *
+     * @param root directory to store entries in
+     * @return A store at {@code root}.
+     */
+    public static CacheStore at(Path root) {
+        return new CacheStore(root);
+    }
+
+    private static final int MAGIC = 0x41535643; // "ASVC"
+    private static final byte VERSION = 1;
+
+    // metadata entry holding the codec of the body, and its values
+    private static final String CODEC = "codec";
+    private static final String DEFLATE = "deflate";
+    private static final String IDENTITY = "identity";
+
+    // metadata entry holding the CRC-32 of the stored body, in hex
+    private static final String CHECKSUM = "crc32";
+
+    // metadata entry holding when the entry was stored or refreshed
+    public static final String STORED_AT = "stored-at";
+
+    // directory inside the cache that corrupt entries are moved to, and suffix of files that are still being written
+    private static final String QUARANTINE = "quarantine";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // bytes given to and written by put, to report the compression ratio
+    private static final LongAdder bytesRaw = Metrics.counter("cache.bytes.raw");
+    private static final LongAdder bytesStored = Metrics.counter("cache.bytes.stored");
+    private static final LongAdder corrupt = Metrics.counter("cache.corrupt");
+
+    private final Path root;
+
+    /**
+     * Creates the cache directory if needed, migrates caches written by older versions of asvc, and starts the recovery
+     * scan on a background thread.
+     *
+     * @throws IOException if the cache directory cannot be created
+     */
+    public void initialise() throws IOException {
+        Files.createDirectories(root);
+        migrate();
+
+        Thread recovery = new Thread(this::recover, "asvc-cache-recovery");
+        recovery.setDaemon(true);
+        recovery.setPriority(Thread.MIN_PRIORITY);
+        recovery.start();
+    }
+
+    /**
+     * Checks if an entry is cached.
+     *
+     * @param key key of the entry
+     * @return {@code true} if an entry for {@code key} exists, {@code false} otherwise.
+     */
+    public boolean contains(String key) {
+        return Files.isRegularFile(pathOf(key));
+    }
+
+    /**
+     * Stores an entry, replacing any previous entry for the same key.
+     * The body is compressed if that makes it smaller; already compressed data such as audio is stored as is.
+     *
+     * @param key      key of the entry
+     * @param body     contents of the entry
+     * @param metadata additional information about the entry, e.g. HTTP headers
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, byte[] body, Map<String, String> metadata) throws IOException {
+        Path path = pathOf(key);
+        Files.createDirectories(path.getParent());
+
+        byte[] deflated = deflate(body);
+        boolean compress = deflated.length < body.length;
+        byte[] stored = compress ? deflated : body;
+
+        Map<String, String> header = new LinkedHashMap<>(metadata);
+        header.put(CODEC, compress ? DEFLATE : IDENTITY);
+        header.put(CHECKSUM, checksum(stored));
+        header.put(STORED_AT, Long.toString(System.currentTimeMillis()));
+
+        write(path, key, header, stored);
+
+        bytesRaw.add(body.length);
+        bytesStored.add(stored.length);
+    }
+
+    /**
+     * Replaces the metadata of an entry, keeping its body, e.g. after a server confirmed that the body is unchanged.
+     * Metadata of the entry that is not in {@code metadata} is kept, and the entry is marked as stored now.
+     *
+     * @param key      key of the entry
+     * @param metadata new metadata of the entry
+     * @throws IOException if the entry does not exist, is corrupt, or cannot be written
+     */
+    public void refresh(String key, Map<String, String> metadata) throws IOException {
+        rewrite(key, metadata, true);
+    }
+
+    /**
+     * Adds metadata to an entry, keeping its body and when it was stored, e.g. what a scraper found in it.
+     * Metadata of the entry that is not in {@code metadata} is kept.
+     *
+     * @param key      key of the entry
+     * @param metadata metadata to add to the entry
+     * @throws IOException if the entry does not exist, is corrupt, or cannot be written
+     */
+    public void annotate(String key, Map<String, String> metadata) throws IOException {
+        rewrite(key, metadata, false);
+    }
+
+    /**
+     * Helper method for {@link #refresh(String, Map)} and {@link #annotate(String, Map)}; rewrites the header of an
+     * entry.
+     *
+     * @param key      key of the entry
+     * @param metadata metadata to add to the entry
+     * @param touch    {@code true} to mark the entry as stored now, {@code false} to keep when it was stored
+     * @throws IOException if the entry does not exist, is corrupt, or cannot be written
+     */
+    private void rewrite(String key, Map<String, String> metadata, boolean touch) throws IOException {
+        try (Entry entry = open(key)) {
+            Map<String, String> header = new LinkedHashMap<>(entry.metadata);
+            header.putAll(metadata);
+            header.put(CODEC, entry.metadata.getOrDefault(CODEC, IDENTITY));
+            header.put(CHECKSUM, checksum(entry.stored));
+            if (touch || !header.containsKey(STORED_AT)) {
+                header.put(STORED_AT, Long.toString(System.currentTimeMillis()));
+            }
+
+            write(entry.path, key, header, entry.stored);
+        }
+    }
+
+    /**
+     * Reads the metadata of an entry, without reading or verifying its body.
+     * For entries written before {@value #STORED_AT} was recorded, the modification time of the entry file is used.
+     *
+     * @param key key of the entry
+     * @return metadata the entry was stored with
+     * @throws IOException if the entry does not exist, or its header cannot be read
+     */
+    public Map<String, String> metadata(String key) throws IOException {
+        Path path = pathOf(key);
+        Map<String, String> metadata = new LinkedHashMap<>();
+
+        try (DataInputStream file = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            readHeader(file, path, metadata);
+        } catch (EOFException | UTFDataFormatException e) {
+            throw new CorruptEntryException("Truncated cache entry: " + path);
+        }
+
+        if (!metadata.containsKey(STORED_AT)) {
+            metadata.put(STORED_AT, Long.toString(Files.getLastModifiedTime(path).toMillis()));
+        }
+        return metadata;
+    }
+
+    /**
+     * Helper method for {@link #put(String, byte[], Map)}; writes an entry file through a temporary file.
+     *
+     * @param path   path of the entry
+     * @param key    key of the entry
+     * @param header metadata of the entry, including codec and checksum
+     * @param stored body of the entry, as stored
+     * @throws IOException if the entry cannot be written
+     */
+    private void write(Path path, String key, Map<String, String> header, byte[] stored) throws IOException {
+        // every writer gets its own temporary file, so concurrent writes of the same key cannot interleave
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(key);
+                out.writeShort(header.size());
+                for (Map.Entry<String, String> entry : header.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+                out.write(stored);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the header of an entry file, up to its body.
+     *
+     * @param file     stream of the entry file, positioned at its start
+     * @param path     path of the entry file, for error messages
+     * @param metadata map to put the metadata of the entry in
+     * @return key the entry was stored under
+     * @throws IOException if the file is not a cache entry, or its header is truncated
+     */
+    private static String readHeader(DataInputStream file, Path path, Map<String, String> metadata) throws IOException {
+        if (file.readInt() != MAGIC || file.readByte() != VERSION) {
+            throw new CorruptEntryException("Not a cache entry: " + path);
+        }
+        String key = file.readUTF();
+        int size = file.readUnsignedShort();
+        for (int i = 0; i < size; i++) {
+            metadata.put(file.readUTF(), file.readUTF());
+        }
+        return key;
+    }
+
+    /**
+     * Stores an entry without metadata.
+     *
+     * @param key  key of the entry
+     * @param body contents of the entry
+     * @throws IOException if the entry cannot be written
+     * @see #put(String, byte[], Map)
+     */
+    public void put(String key, byte[] body) throws IOException {
+        put(key, body, Collections.emptyMap());
+    }
+
+    /**
+     * Opens an entry. The caller must close it.
+     *
+     * @param key key of the entry
+     * @return The entry, positioned at the start of its body.
+     * @throws IOException if the entry does not exist, or is not a valid entry for {@code key}.
+     *                     A corrupt entry is quarantined, so that it is no longer {@link #contains(String) contained}.
+     */
+    public Entry open(String key) throws IOException {
+        Path path = pathOf(key);
+        Entry entry;
+        try {
+            entry = new Entry(path);
+        } catch (CorruptEntryException e) {
+            quarantine(path, e.getMessage());
+            throw e;
+        }
+
+        if (!entry.key.equals(key)) {
+            entry.close();
+            throw new IOException("Cache entry " + entry.path + " holds '" + entry.key + "' rather than '" + key + "'");
+        }
+
+        return entry;
+    }
+
+    /**
+     * Computes where an entry is stored.
+     *
+     * @param key key of the entry
+     * @return path of the form {@code root/ab/cd/abcd...}, with {@code abcd...} the hex SHA-1 of {@code key}
+     */
+    Path pathOf(String key) {
+        String name = sha1(key);
+        return root.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name);
+    }
+
+    /**
+     * Moves all entries of the flat cache layout of older versions into the sharded layout.
+     * Those were named after their key, with ".html" appended for pages. Due to a missing file separator, they were
+     * written next to the cache directory with its name as prefix (e.g. {@code ASVC/cachejisho ... of 私.html}),
+     * rather than inside it.
+     */
+    private void migrate() {
+        String prefix = root.getFileName().toString();
+
+        File[] inside = root.toFile().listFiles(file -> file.isFile() && !file.getName().endsWith(TEMP_SUFFIX));
+        File[] beside = root.getParent().toFile().listFiles(file -> file.isFile()
+                && file.getName().startsWith(prefix)
+                && (file.getName().endsWith(".html") || file.getName().endsWith(".mp3")));
+
+        int migrated = 0;
+        migrated += migrate(inside, "");
+        migrated += migrate(beside, prefix);
+
+        if (migrated > 0) {
+            logger.info("Migrated {} cache entries to {}", migrated, root);
+        }
+    }
+
+    /**
+     * Helper method for {@link #migrate()}; moves flat files into the sharded layout.
+     *
+     * @param files  files to migrate, or {@code null} if there are none
+     * @param prefix prefix to strip from the file names to obtain their keys
+     * @return number of migrated files
+     */
+    private int migrate(File[] files, String prefix) {
+        if (files == null) {
+            return 0;
+        }
+
+        int migrated = 0;
+        for (File file : files) {
+            String key = file.getName().substring(prefix.length());
+            if (key.endsWith(".html")) {
+                key = key.substring(0, key.length() - ".html".length());
+            }
+
+            try {
+                if (!contains(key)) {
+                    put(key, Files.readAllBytes(file.toPath()));
+                }
+                Files.delete(file.toPath());
+                migrated++;
+            } catch (IOException e) {
+                logger.warn("Cannot migrate cache file {}: {}", file, e.getMessage());
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Recovery scan: removes temporary files left behind by interrupted writes, and quarantines every corrupt entry.
+     */
+    private void recover() {
+        long start = System.nanoTime();
+        int checked = 0;
+        int removed = 0;
+        int quarantined = 0;
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> !file.getParent().getFileName().toString().equals(QUARANTINE))
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Cannot scan cache {} for corrupt entries: {}", root, e.getMessage());
+            return;
+        }
+
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                // a write that is still in progress is renamed within milliseconds; older ones were interrupted
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < System.currentTimeMillis() - 60_000L) {
+                        Files.deleteIfExists(file);
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    logger.debug("Cannot remove temporary cache file {}: {}", file, e.getMessage());
+                }
+                continue;
+            }
+
+            checked++;
+            try {
+                new Entry(file).close();
+            } catch (IOException e) {
+                quarantine(file, e.getMessage());
+                quarantined++;
+            }
+        }
+
+        logger.info("Checked {} cache entries in {} ms: {} quarantined, {} interrupted writes removed",
+                checked, (System.nanoTime() - start) / 1_000_000, quarantined, removed);
+    }
+
+    /**
+     * Moves a corrupt entry out of the way, keeping it for inspection.
+     *
+     * @param path   path of the entry
+     * @param reason why the entry is corrupt, for logging
+     */
+    private void quarantine(Path path, String reason) {
+        corrupt.increment();
+        try {
+            Path target = root.resolve(QUARANTINE).resolve(path.getFileName());
+            Files.createDirectories(target.getParent());
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+            logger.warn("Quarantined corrupt cache entry {}: {}", path, reason);
+        } catch (IOException e) {
+            logger.warn("Cannot quarantine corrupt cache entry {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * @param stored bytes to checksum
+     * @return hex CRC-32 of {@code stored}
+     */
+    private static String checksum(byte[] stored) {
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * @param body bytes to compress
+     * @return {@code body}, compressed with Deflate at the best compression level
+     */
+    private static byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param key key to hash
+     * @return lowercase hex SHA-1 of the UTF-8 bytes of {@code key}
+     */
+    private static String sha1(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required to be supported by every JVM", e);
+        }
+    }
+
+    /**
+     * Thrown when an entry file is truncated, or fails its checksum.
+     */
+    private static class CorruptEntryException extends IOException {
+        CorruptEntryException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An opened cache entry: its header has been read and its checksum verified, and {@link #body()} streams its body.
+     */
+    public static class Entry implements Closeable {
+        private final Path path;
+        private final byte[] stored;
+        private final InputStream in;
+        private InputStream body = null;
+        private final String key;
+        private final Map<String, String> metadata = new LinkedHashMap<>();
+
+        private Entry(Path path) throws IOException {
+            this.path = path;
+
+            // Stored bodies are small, compressed pages or audio; reading them whole allows verifying the checksum
+            // before anything is parsed.
+            try (DataInputStream file = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                key = readHeader(file, path, metadata);
+                stored = file.readAllBytes();
+            } catch (EOFException | UTFDataFormatException e) {
+                throw new CorruptEntryException("Truncated cache entry: " + path);
+            }
+
+            String expected = metadata.get(CHECKSUM);
+            if (expected != null && !expected.equals(checksum(stored))) {
+                throw new CorruptEntryException("Checksum mismatch of cache entry: " + path);
+            }
+
+            this.in = new ByteArrayInputStream(stored);
+        }
+
+        /**
+         * @return key the entry was stored under
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * @return metadata the entry was stored with
+         */
+        public Map<String, String> metadata() {
+            return Collections.unmodifiableMap(metadata);
+        }
+
+        /**
+         * @return stream of the decompressed body of the entry; closed when the entry is closed
+         * @throws IOException if the body is stored with an unknown codec
+         */
+        public InputStream body() throws IOException {
+            if (body == null) {
+                String codec = metadata.getOrDefault(CODEC, IDENTITY);
+                switch (codec) {
+                    case DEFLATE:
+                        body = new InflaterInputStream(in);
+                        break;
+                    case IDENTITY:
+                        body = in;
+                        break;
+                    default:
+                        throw new IOException("Unknown codec '" + codec + "' of cache entry " + path);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                body.close();
+            }
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.dbarenholz.asvc.cache;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker of a single source.
+ *
+ * A source that keeps failing, because it is down or because its markup changed, would otherwise make every word of a
+ * batch wait for a download or parse that cannot succeed. After {@link Settings#breakerFailures} consecutive failed
+ * lookups the breaker opens, and lookups of the source fail immediately. After {@link Settings#breakerCooldown}
+ * milliseconds a single trial lookup is let through (half-open): if it succeeds the breaker closes again, otherwise it
+ * stays open for another cooldown.
+ *
+ * Lookups that are served from cache do not pass the breaker, so a broken source still serves everything it served
+ * before.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    /**
+     * States of a breaker.
+     */
+    public enum State {
+        CLOSED,    // lookups pass
+        OPEN,      // lookups fail immediately
+        HALF_OPEN  // a single trial lookup is running, others fail immediately
+    }
+
+    private final String source;
+    private final int threshold;
+    private final long cooldownMillis;
+
+    // all guarded by this
+    private State state = State.CLOSED;
+    private int failures = 0;    // consecutive failures while closed
+    private long openedAt = 0;   // System.currentTimeMillis() of the last time the breaker opened
+
+    private final LongAdder opened;
+    private final LongAdder rejected;
+
+    /**
+     * Creates a closed breaker with the thresholds from {@link Settings}.
+     *
+     * @param source identifier of the source, used to name its metrics (e.g. {@code jisho})
+     */
+    public CircuitBreaker(String source) {
+        this(source, Settings.breakerFailures, Settings.breakerCooldown);
+    }
+
+    /**
+     * Creates a closed breaker.
+     *
+     * @param source         identifier of the source, used to name its metrics (e.g. {@code jisho})
+     * @param threshold      consecutive failures after which the breaker opens
+     * @param cooldownMillis milliseconds the breaker stays open before letting a trial lookup through
+     */
+    public CircuitBreaker(String source, int threshold, long cooldownMillis) {
+        this.source = source;
+        this.threshold = threshold;
+        this.cooldownMillis = cooldownMillis;
+        this.opened = Metrics.counter("breaker.open." + source);
+        this.rejected = Metrics.counter("breaker.rejected." + source);
+    }
+
+    /**
+     * Asks the breaker whether a lookup may run. Every lookup that is allowed must be reported with
+     * {@link #success()}, {@link #failure()} or {@link #release()}.
+     *
+     * @return {@code true} if the lookup may run, {@code false} if it should fail immediately
+     */
+    public synchronized boolean allow() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= cooldownMillis) {
+                    state = State.HALF_OPEN;
+                    logger.info("Trying {} again", source);
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Reports a successful lookup, closing the breaker.
+     */
+    public synchronized void success() {
+        if (state != State.CLOSED) {
+            logger.info("{} is working again", source);
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Reports a failed lookup. Opens the breaker after {@link #threshold} consecutive failures, or if the trial lookup
+     * failed.
+     */
+    public synchronized void failure() {
+        if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= threshold)) {
+            if (state == State.CLOSED) {
+                logger.warn("{} failed {} times in a row, skipping it for {} s", source, failures, cooldownMillis / 1000);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            failures = 0;
+            opened.increment();
+        }
+    }
+
+    /**
+     * Reports a lookup whose outcome says nothing about the source, e.g. because its deadline passed. A trial lookup
+     * reported this way is simply tried again on the next {@link #allow()}.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * @return current state of the breaker
+     */
+    public synchronized State getState() {
+        return state;
+    }
+}
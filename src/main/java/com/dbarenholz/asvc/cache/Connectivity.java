@@ -0,0 +1,246 @@
+package com.dbarenholz.asvc.cache;
+
+import com.dbarenholz.asvc.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connectivity monitor.
+ *
+ * Keeps track of which websites (hosts) can be reached, by probing them with a HEAD request on a background thread.
+ * A probe result is trusted for {@link Settings#connectivityTTL} milliseconds; asking for an older result returns it
+ * immediately and starts a new probe, so callers never wait for the network.
+ *
+ * Work that needs an unreachable host can be queued with {@link #whenReachable(String, Runnable)}. Hosts with queued
+ * work are probed again every {@link Settings#connectivityTTL} milliseconds, and the work is run once they are back.
+ */
+public class Connectivity {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    // hosts scraped by the application, probed by probeAll; initialised before the instance, which uses it
+    private static final List<String> SOURCES = Arrays.asList(Settings.jisho, Settings.tatoeba, Settings.forvo);
+
+    private static final Connectivity cInstance = new Connectivity();
+
+    private Connectivity() {
+    }
+
+    public static Connectivity getConnectivity() {
+        return cInstance;
+    }
+
+    // probes run on daemon threads, so closing the application is not blocked
+    private final ScheduledExecutorService prober = Executors.newScheduledThreadPool(SOURCES.size(), runnable -> {
+        Thread thread = new Thread(runnable, "asvc-connectivity");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * State of a single host.
+     */
+    private static class Host {
+        private final String url;
+        private volatile boolean reachable = true; // optimistic until the first probe says otherwise
+        private volatile long checkedAt = 0;        // System.currentTimeMillis() of the last probe, 0 if never probed
+        private CompletableFuture<Boolean> probe = null; // probe in flight, guarded by this
+        private boolean reprobeScheduled = false;       // guarded by this
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+        private Host(String url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * Checks if a host is reachable, without waiting for the network.
+     * If the last probe of the host is older than {@link Settings#connectivityTTL}, a new probe is started.
+     *
+     * @param host base URL of the host (e.g. {@link Settings#jisho})
+     * @return The result of the last probe; {@code true} if the host has not been probed yet.
+     */
+    public boolean isReachable(String host) {
+        Host state = host(host);
+        if (System.currentTimeMillis() - state.checkedAt > Settings.connectivityTTL) {
+            probe(host);
+        }
+        return state.reachable;
+    }
+
+    /**
+     * Probes a host, regardless of the age of the last probe. Joins a probe that is already in flight.
+     *
+     * @param host base URL of the host
+     * @return A future holding whether the host is reachable.
+     */
+    public CompletableFuture<Boolean> probe(String host) {
+        Host state = host(host);
+
+        synchronized (state) {
+            if (state.probe == null) {
+                CompletableFuture<Boolean> probe = new CompletableFuture<>();
+                state.probe = probe;
+                prober.execute(() -> {
+                    boolean reachable = reach(state.url);
+                    update(state, reachable);
+                    probe.complete(reachable);
+                });
+            }
+            return state.probe;
+        }
+    }
+
+    /**
+     * Probes all hosts scraped by the application.
+     *
+     * @return A future holding, per base URL, whether that host is reachable.
+     */
+    public CompletableFuture<Map<String, Boolean>> probeAll() {
+        Map<String, CompletableFuture<Boolean>> probes = new LinkedHashMap<>();
+        for (String source : SOURCES) {
+            probes.put(source, probe(source));
+        }
+
+        return CompletableFuture.allOf(probes.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, Boolean> results = new LinkedHashMap<>();
+            probes.forEach((source, probe) -> results.put(source, probe.join()));
+            return results;
+        });
+    }
+
+    /**
+     * Runs {@code task} now if {@code host} is reachable, or queues it until the host is reachable again.
+     *
+     * @param host base URL of the host the task needs
+     * @param task task to run; should hand off any real work to another thread
+     */
+    public void whenReachable(String host, Runnable task) {
+        Host state = host(host);
+
+        if (isReachable(host)) {
+            task.run();
+            return;
+        }
+
+        state.waiting.add(task);
+        scheduleReprobe(state);
+
+        // the host may have come back between the check and queueing the task
+        if (state.reachable) {
+            drain(state);
+        }
+    }
+
+    /**
+     * Helper method to get the state of a host, creating it if needed.
+     *
+     * @param host base URL of the host
+     * @return state of the host
+     */
+    private Host host(String host) {
+        return hosts.computeIfAbsent(host, Host::new);
+    }
+
+    /**
+     * Helper method for {@link #probe(String)}; stores a probe result, and runs or reschedules queued tasks.
+     *
+     * @param state     host that was probed
+     * @param reachable result of the probe
+     */
+    private void update(Host state, boolean reachable) {
+        boolean changed = state.reachable != reachable;
+        state.reachable = reachable;
+        state.checkedAt = System.currentTimeMillis();
+
+        synchronized (state) {
+            state.probe = null;
+        }
+
+        if (changed) {
+            logger.info("{} is {}", state.url, reachable ? "reachable again" : "unreachable, using cached results only");
+        }
+
+        if (reachable) {
+            drain(state);
+        } else if (!state.waiting.isEmpty()) {
+            scheduleReprobe(state);
+        }
+    }
+
+    /**
+     * Helper method to probe a host with queued tasks again after {@link Settings#connectivityTTL}.
+     *
+     * @param state host to probe again
+     */
+    private void scheduleReprobe(Host state) {
+        synchronized (state) {
+            if (state.reprobeScheduled) {
+                return;
+            }
+            state.reprobeScheduled = true;
+        }
+
+        prober.schedule(() -> {
+            synchronized (state) {
+                state.reprobeScheduled = false;
+            }
+            probe(state.url);
+        }, Settings.connectivityTTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Helper method to run all queued tasks of a host.
+     *
+     * @param state host that is reachable
+     */
+    private void drain(Host state) {
+        int drained = 0;
+        for (Runnable task = state.waiting.poll(); task != null; task = state.waiting.poll()) {
+            task.run();
+            drained++;
+        }
+
+        if (drained > 0) {
+            logger.debug("Resumed {} queued tasks for {}", drained, state.url);
+        }
+    }
+
+    /**
+     * Helper method for {@link #probe(String)}; sends a HEAD request to a host.
+     *
+     * @param url base URL of the host
+     * @return {@code true} if the host responded at all, {@code false} otherwise.
+     */
+    private static boolean reach(String url) {
+        try {
+            Jsoup.connect(url)
+                    .method(Connection.Method.HEAD)
+                    .userAgent(Settings.agent)
+                    .timeout(Settings.probeTimeout)
+                    .ignoreHttpErrors(true)
+                    .ignoreContentType(true)
+                    .execute();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Cannot reach {}: {}", url, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.dbarenholz.asvc.cache;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A point in time by which some work must be done, e.g. scraping a word or a whole batch of words.
+ *
+ * Deadlines are propagated to the lookups of a word through the thread running them: a lookup that runs inside
+ * {@link #call(Supplier)} or {@link #run(Runnable)} sees the deadline as {@link #current()}, and every HTTP request it makes uses the remaining time as
+ * its timeout, rather than the full {@link com.dbarenholz.asvc.Settings#timeout}. That way, the two requests of a
+ * Tatoeba lookup share a single budget, instead of each taking up to the full timeout.
+ */
+public final class Deadline {
+
+    /**
+     * No deadline at all.
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    // deadline of the work running on the current thread
+    private static final ThreadLocal<Deadline> current = ThreadLocal.withInitial(() -> NONE);
+
+    private final long nanos; // System.nanoTime() of the deadline, or Long.MAX_VALUE for none
+
+    private Deadline(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * @param millis milliseconds from now
+     * @return A deadline {@code millis} milliseconds from now.
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * @return The deadline of the work running on the current thread, or {@link #NONE} if there is none.
+     */
+    public static Deadline current() {
+        return current.get();
+    }
+
+    /**
+     * @param other another deadline
+     * @return the earliest of this deadline and {@code other}
+     */
+    public Deadline min(Deadline other) {
+        // compare the difference, as System.nanoTime() may overflow
+        if (this == NONE) {
+            return other;
+        }
+        if (other == NONE) {
+            return this;
+        }
+        return nanos - other.nanos <= 0 ? this : other;
+    }
+
+    /**
+     * @return milliseconds until this deadline, rounded down; {@link Long#MAX_VALUE} if this is {@link #NONE}
+     */
+    public long remainingMillis() {
+        if (this == NONE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos - System.nanoTime()));
+    }
+
+    /**
+     * @return {@code true} if this deadline has passed, {@code false} otherwise.
+     */
+    public boolean expired() {
+        return this != NONE && nanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Does some work with this deadline as the {@link #current()} deadline of the current thread.
+     *
+     * @param work work to do
+     * @param <T>  type of the result of the work
+     * @return The result of {@code work}.
+     */
+    public <T> T call(Supplier<T> work) {
+        Deadline previous = current.get();
+        current.set(this);
+        try {
+            return work.get();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Does some work with this deadline as the {@link #current()} deadline of the current thread.
+     *
+     * @param work work to do
+     */
+    public void run(Runnable work) {
+        call(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Thrown instead of starting a request when the deadline of the current work has already passed.
+     */
+    public static class ExceededException extends InterruptedIOException {
+        public ExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,7 +1,8 @@
 /**
  * Caching package.
  *
- * Contains a single abstract caching class that implements caching webpages, amongst others, to files.
+ * Contains an abstract caching class that implements caching webpages, amongst others, and the on-disk store
+ * ({@link com.dbarenholz.asvc.cache.CacheStore}) that holds the cached entries.
  * Written specifically for ASVC, so its usage outside of this application is probably close to not useful.
  *
  * @author dbarenholz
@@ -1,43 +1,34 @@
 package com.dbarenholz.asvc.exceptions;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.jsoup.Connection;
 
 /**
  * Exception class for downloading pages.
+ *
+ * Scrapers report misses and failures as {@link com.dbarenholz.asvc.scraping.ScrapeOutcome}s; this exception is only
+ * thrown to callers that look up a single page and want an exception instead. It does not capture a stack trace, and
+ * is not logged when created: the caller decides whether it is worth logging.
  */
 public class DownloadException extends Exception {
 
-    private static final Logger logger = LogManager.getLogger();
-
-    DownloadException(String message) {
-        super(message);
+    public DownloadException(String message) {
+        super(message, null, false, false);
     }
 
     public DownloadException(String message, String page) {
-        super(message + page);
+        this(message + page);
     }
 
     public DownloadException(String message, Exception e) {
-        logger.warn("{}\n\t" +
-                "Exception: {}" +
-                "StackTrace: {}",
-                message,
-                e,
-                e.getStackTrace());
+        super(message + "\n\tCause: " + e, e, false, false);
     }
 
     public DownloadException(String message, String page, Connection.Response response) {
-        logger.warn("{}\n\t" +
-                "Queried page: {}\n\t" +
-                "Response {}",
-                message,
-                page,
-                response == null ? "null" : response.statusCode() + ": " + response.statusMessage());
+        this(message + "\n\tQueried page: " + page + "\n\tResponse: "
+                + (response == null ? "null" : response.statusCode() + ": " + response.statusMessage()));
     }
 
     public DownloadException(String message, String page, Exception e) {
-        this(message+"\n\tQueried page: " + page, e);
+        this(message + "\n\tQueried page: " + page, e);
     }
 }
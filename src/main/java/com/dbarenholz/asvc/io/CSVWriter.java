@@ -1,30 +1,52 @@
 package com.dbarenholz.asvc.io;
 
 import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.cache.CacheStore;
 import com.dbarenholz.asvc.vocabitem.VocabItem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.*;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Collection;
 
 /**
  * Very simple CSV writer for use with {@link com.dbarenholz.asvc.App}.
  * Writes {@link com.dbarenholz.asvc.vocabitem.VocabItem}s to a file.
  */
 public class CSVWriter implements Closeable {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
     private PrintWriter writer;
+    private final ExportFormat format;
 
     /**
      * Creates a CSVwriter for a file specified by a name
      *
      * @param fileName name of the file
+     * @param format   format to write words in
      * @throws IOException if something goes wrong
      */
-    public CSVWriter(String fileName) throws IOException {
-        this(new File(fileName));
+    public CSVWriter(String fileName, ExportFormat format) throws IOException {
+        this(new File(fileName), format);
+    }
+
+    private CSVWriter(File file, ExportFormat format) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8), format);
     }
 
-    private CSVWriter(File file) throws IOException {
-        writer = new PrintWriter(new BufferedWriter(new FileWriter(file, false)));
+    /**
+     * Creates a CSVwriter writing to an already open writer, e.g. the body of an HTTP response
+     *
+     * @param out    writer to write to; closed when this CSVwriter is closed
+     * @param format format to write words in
+     */
+    public CSVWriter(Writer out, ExportFormat format) {
+        this.format = format;
+        writer = new PrintWriter(new BufferedWriter(out));
     }
 
     @Override
@@ -33,46 +55,84 @@ public class CSVWriter implements Closeable {
     }
 
     /**
-     * Writes all words in a set to a CSV file
+     * Writes all words in a collection to a CSV file
      *
-     * @param setOfAllProcessedWords set of words to write
+     * @param allProcessedWords words to write
      */
-    public void write(HashSet<VocabItem> setOfAllProcessedWords) {
-        for (VocabItem word : setOfAllProcessedWords) {
+    public void write(Collection<VocabItem> allProcessedWords) {
+        for (VocabItem word : allProcessedWords) {
             write(word);
         }
     }
 
     /**
-     * Writes a single word to a CSV file
+     * Copies the media files that the rows of some words refer to (audio, pitch accent graphs) from the cache into a
+     * directory, e.g. Anki's {@code collection.media}, so that imported notes play and show them. Files already in the
+     * directory are kept; files no longer in the cache are skipped.
+     *
+     * @param allProcessedWords words whose media to copy
+     * @param format            format the words are written in
+     * @param directory         directory to copy the media files into; created if needed
+     * @return The number of files copied.
+     * @throws IOException if the directory cannot be created
+     */
+    public static int writeMedia(Collection<VocabItem> allProcessedWords, ExportFormat format, Path directory)
+            throws IOException {
+        CacheStore store = CacheStore.getStore();
+        Files.createDirectories(directory);
+
+        int copied = 0;
+        for (VocabItem word : allProcessedWords) {
+            for (String name : format.media(word)) {
+                try (CacheStore.Entry entry = store.open(name)) {
+                    Path target = directory.resolve(name);
+                    if (!Files.exists(target)) {
+                        Files.copy(entry.body(), target);
+                        copied++;
+                    }
+                } catch (IOException | InvalidPathException e) {
+                    logger.warn("Cannot export media file {}: {}", name, e.getMessage());
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Writes a single word to a CSV file, as a row of the columns of the export format
      *
      * @param word word to write
      */
     private void write(VocabItem word) {
-        String[] toWrite = new String[]{
-                // TODO: Fix writing method for anki
-//                word.getExpression(),
-//                word.getMeaning(),
-//                word.getReading(),
-//                word.getSentence(),
-//                "[sound:" + word.getAudio() + "]"
-        };
-        write(toWrite);
+        write(format.row(word));
     }
 
     /**
-     * Writes a string array to a file
+     * Writes a string array to a file, as a single line
      *
      * @param arr array to write
      */
     private void write(String[] arr) {
         StringBuilder sb = new StringBuilder();
         for (String word : arr) {
-            sb.append(word).append(Settings.delim);
+            sb.append(quote(word)).append(Settings.delim);
         }
-        sb.deleteCharAt(sb.lastIndexOf(Settings.delim));
+        sb.setLength(sb.length() - Settings.delim.length());
+
+        writer.println(sb.toString());
+    }
 
-        writer.write(sb.toString());
+    /**
+     * Quotes a value if it contains the delimiter, a quote or a line break (e.g. a meaning like "dream, vision").
+     *
+     * @param value value to quote
+     * @return {@code value}, quoted with inner quotes doubled if needed
+     */
+    private static String quote(String value) {
+        if (value.contains(Settings.delim) || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
     }
 }
 
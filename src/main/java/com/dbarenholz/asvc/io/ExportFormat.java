@@ -0,0 +1,107 @@
+package com.dbarenholz.asvc.io;
+
+import com.dbarenholz.asvc.vocabitem.VocabField;
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Formats that {@link CSVWriter} can export {@link VocabItem}s in. Each format is a list of columns, which also tells
+ * the scrape engine which fields are worth scraping at all.
+ */
+public enum ExportFormat {
+    /**
+     * Plain text: kanji, kana, translation and example sentence. Needs no audio.
+     */
+    TEXT("Text CSV",
+            VocabField.KANJI, VocabField.KANA, VocabField.TRANSLATION, VocabField.SENTENCE_JP),
+
+    /**
+     * Anki note fields: expression, meaning, reading, sentence, and a {@code [sound:...]} tag for the audio. The audio
+     * files are exported along with the CSV, see {@link CSVWriter#writeMedia}.
+     */
+    ANKI("Anki CSV (with audio)",
+            VocabField.KANJI, VocabField.TRANSLATION, VocabField.KANA, VocabField.SENTENCE_JP, VocabField.AUDIO),
+
+    /**
+     * Anki note fields as {@link #ANKI}, followed by an {@code <img>} tag for the pitch accent graph.
+     */
+    ANKI_ACCENT("Anki CSV (with audio and pitch accent)",
+            VocabField.KANJI, VocabField.TRANSLATION, VocabField.KANA, VocabField.SENTENCE_JP, VocabField.AUDIO,
+            VocabField.ACCENT);
+
+    private final String description;
+    private final List<VocabField> columns;
+
+    ExportFormat(String description, VocabField... columns) {
+        this.description = description;
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+    }
+
+    /**
+     * @return columns of this format, in order
+     */
+    public List<VocabField> columns() {
+        return columns;
+    }
+
+    /**
+     * @return the fields this format needs, i.e. the fields worth scraping
+     */
+    public Set<VocabField> fields() {
+        return EnumSet.copyOf(columns);
+    }
+
+    /**
+     * Converts an item to a row of this format.
+     *
+     * @param item item to convert
+     * @return values of the columns of this format for {@code item}
+     */
+    String[] row(VocabItem item) {
+        String[] row = new String[columns.size()];
+        for (int i = 0; i < row.length; i++) {
+            VocabField column = columns.get(i);
+            String value = column.of(item);
+            if (this != TEXT && column == VocabField.AUDIO && !value.isEmpty()) {
+                value = "[sound:" + value + "]";
+            } else if (this != TEXT && column == VocabField.ACCENT && !value.isEmpty()) {
+                value = "<img src=\"" + value + "\">";
+            }
+            row[i] = value;
+        }
+        return row;
+    }
+
+    /**
+     * Lists the media files the row of an item refers to, i.e. the files to copy into Anki's media folder.
+     *
+     * @param item item to list the media files of
+     * @return names of the audio and pitch accent files in the row of {@code item}; empty for {@link #TEXT}
+     */
+    List<String> media(VocabItem item) {
+        List<String> media = new ArrayList<>();
+        if (this == TEXT) {
+            return media;
+        }
+        for (VocabField column : columns) {
+            if ((column == VocabField.AUDIO || column == VocabField.ACCENT) && !column.of(item).isEmpty()) {
+                media.add(column.of(item));
+            }
+        }
+        return media;
+    }
+
+    /**
+     * @return human readable description, as shown in the GUI
+     */
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,104 @@
+package com.dbarenholz.asvc.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets.
+ *
+ * Bucket {@code i} counts durations in {@code [2^i, 2^(i+1))} nanoseconds, so percentiles are accurate to within a
+ * factor two. That is plenty to tell a 1ms cache hit from a 1s download, at the cost of a single increment per record.
+ */
+public class LatencyHistogram {
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 1);
+        buckets[Long.SIZE - 1 - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time passed since {@code startNanos}.
+     *
+     * @param startNanos start time, as given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Estimates a percentile of all recorded durations.
+     *
+     * @param percentile percentile to estimate, between 0 and 100
+     * @return Upper bound, in nanoseconds, of the bucket holding the percentile, or 0 if nothing has been recorded.
+     */
+    public long percentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= Math.max(rank, 1)) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : Math.min((1L << (i + 1)) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Returns a one-line summary, with durations in milliseconds.
+     *
+     * @return string of count, mean, p50, p95, p99 and max
+     */
+    @Override
+    public String toString() {
+        long n = count.sum();
+        return String.format("n=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                n,
+                n == 0 ? 0.0 : sum.sum() / (double) n / 1e6,
+                percentile(50) / 1e6,
+                percentile(95) / 1e6,
+                percentile(99) / 1e6,
+                max.get() / 1e6);
+    }
+}
@@ -0,0 +1,127 @@
+package com.dbarenholz.asvc.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of all application metrics.
+ *
+ * Metrics are created on first use, and should be looked up once and kept in a field where they are used on a hot
+ * path. Updating a metric is a single {@link LongAdder} increment, so they are always enabled.
+ *
+ * Naming convention: {@code <area>.<what>.<source>}, e.g. {@code cache.hit.jisho} or {@code http.latency.forvo}.
+ */
+public final class Metrics {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    static final String OBJECT_NAME = "com.dbarenholz.asvc:type=Metrics";
+
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Retrieves (or creates) a counter.
+     *
+     * @param name name of the counter
+     * @return The counter with that name.
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Retrieves (or creates) a latency histogram.
+     *
+     * @param name name of the histogram
+     * @return The histogram with that name.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers all metrics with the platform MBean server. Does nothing if already registered.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Bean(), name);
+            }
+        } catch (JMException e) {
+            logger.warn("Cannot register metrics with JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a summary of all metrics, sorted by name.
+     *
+     * @return multi-line string with one metric per line
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(counters).forEach((name, counter) ->
+                sb.append("\n--> ").append(name).append(": ").append(counter.sum()));
+        new TreeMap<>(histograms).forEach((name, histogram) ->
+                sb.append("\n--> ").append(name).append(": ").append(histogram));
+        return sb.toString();
+    }
+
+    /**
+     * Logs a summary of all metrics, e.g. at the end of a run.
+     */
+    public static void logSummary() {
+        logger.info("Metrics: {}", summary());
+    }
+
+    /**
+     * Resets all metrics to zero.
+     */
+    public static void reset() {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * MXBean implementation, delegating to the static registry.
+     */
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, counter.sum()));
+            return values;
+        }
+
+        @Override
+        public Map<String, String> getLatencies() {
+            Map<String, String> values = new TreeMap<>();
+            histograms.forEach((name, histogram) -> values.put(name, histogram.toString()));
+            return values;
+        }
+
+        @Override
+        public String getSummary() {
+            return summary();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
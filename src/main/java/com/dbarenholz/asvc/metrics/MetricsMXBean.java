@@ -0,0 +1,29 @@
+package com.dbarenholz.asvc.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view on {@link Metrics}, registered as {@value Metrics#OBJECT_NAME}.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return current value of every counter, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return summary of every latency histogram, by name
+     */
+    Map<String, String> getLatencies();
+
+    /**
+     * @return multi-line summary of all metrics
+     */
+    String getSummary();
+
+    /**
+     * Resets all metrics to zero.
+     */
+    void reset();
+}
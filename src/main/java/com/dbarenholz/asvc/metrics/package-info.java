@@ -0,0 +1,13 @@
+/**
+ * The metrics package contains low-overhead instrumentation for asvc: counters and latency histograms for caching,
+ * downloading, parsing and tokenizing. All metrics are kept in {@link com.dbarenholz.asvc.metrics.Metrics},
+ * exposed over JMX, and summarised in the log at the end of a run.
+ *
+ * @author dbarenholz
+ * @version 1.0
+ * @since 13
+ *
+ * @see com.dbarenholz.asvc.metrics.Metrics
+ * @see com.dbarenholz.asvc.metrics.LatencyHistogram
+ */
+package com.dbarenholz.asvc.metrics;
@@ -0,0 +1,186 @@
+package com.dbarenholz.asvc.parsing;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+import com.dbarenholz.asvc.cache.CacheStore;
+import com.dbarenholz.asvc.metrics.LatencyHistogram;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.scraping.ScrapeOutcome;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generates pitch accent graphs locally, from the accent information in the kuromoji UniDic kana-accent dictionary.
+ *
+ * A word is tokenized on its own; the accent type of its token (e.g. {@code 2} for 橋) is the position of the accent
+ * nucleus. Words made of several tokens (e.g. 日本語) get the accent of the compound, following the accent connection
+ * type of each next token:
+ * <ul>
+ *     <li>C1: the nucleus of the next token is kept;</li>
+ *     <li>C2: the nucleus falls on the first mora of the next token;</li>
+ *     <li>C3: the compound is flat (heiban);</li>
+ *     <li>C4: the nucleus falls on the last mora before the next token;</li>
+ *     <li>C5: the nucleus of the compound so far is kept.</li>
+ * </ul>
+ * Tokens with another, or no, connection type keep the nucleus of the compound so far.
+ *
+ * Graphs are rendered as SVG (see {@link PitchAccent#toSvg()}) and stored in the {@link CacheStore}, keyed by reading
+ * and nucleus, so homophones with the same accent share a graph. Nothing is downloaded, so many words are rendered in
+ * parallel on the common fork-join pool.
+ */
+public class AccentEngine {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private static final LatencyHistogram renderTime = Metrics.histogram("accent.render");
+
+    private final Tokenizer tokenizer;
+    private final CacheStore store = CacheStore.getStore();
+
+    /**
+     * Creates an accent engine.
+     *
+     * @param tokenizer tokenizer to use, possibly shared with a {@link WordExtractor}
+     */
+    public AccentEngine(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Determines the pitch accent of a word.
+     *
+     * @param wordString word to determine the accent of
+     * @return The accent, or not found if the dictionary has no accent for the word.
+     */
+    public ScrapeOutcome<PitchAccent> accentOf(String wordString) {
+        List<Token> tokens = tokenizer.tokenize(wordString);
+        if (tokens.isEmpty()) {
+            return ScrapeOutcome.notFound("No accent for " + wordString);
+        }
+
+        StringBuilder kana = new StringBuilder();
+        int nucleus = 0;
+        for (Token token : tokens) {
+            int before = PitchAccent.morae(kana.toString()).size();
+            int length = PitchAccent.morae(token.getKana()).size();
+            Integer own = typeOf(token.getAccentType());
+
+            if (kana.length() == 0) {
+                if (own == null) {
+                    return ScrapeOutcome.notFound("No accent for " + wordString);
+                }
+                nucleus = own;
+            } else {
+                switch (token.getAccentConnectionType().split(",")[0]) {
+                    case "C1":
+                        if (own == null) {
+                            return ScrapeOutcome.notFound("No accent for " + wordString);
+                        }
+                        nucleus = own == 0 ? 0 : before + own;
+                        break;
+                    case "C2":
+                        nucleus = before + 1;
+                        break;
+                    case "C3":
+                        nucleus = 0;
+                        break;
+                    case "C4":
+                        nucleus = before;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            kana.append(token.getKana());
+
+            if (nucleus > before + length) {
+                return ScrapeOutcome.notFound("No accent for " + wordString);
+            }
+        }
+
+        return ScrapeOutcome.found(new PitchAccent(hiragana(kana), nucleus));
+    }
+
+    /**
+     * Renders the accent graph of a word into the cache, unless it is cached already.
+     *
+     * @param wordString word to render the accent of
+     * @return The cache key of the graph, or why there is none.
+     */
+    public ScrapeOutcome<String> render(String wordString) {
+        long start = System.nanoTime();
+        try {
+            return accentOf(wordString).then(accent -> {
+                String key = "accent" + String.join("", accent.getMorae()) + "_" + accent.getNucleus() + ".svg";
+                if (store.contains(key)) {
+                    return ScrapeOutcome.found(key);
+                }
+
+                try {
+                    store.put(key, accent.toSvg().getBytes(StandardCharsets.UTF_8));
+                    logger.debug("Rendered accent {} of {}", accent, wordString);
+                    return ScrapeOutcome.found(key);
+                } catch (IOException e) {
+                    return ScrapeOutcome.transientError("Cannot store accent of " + wordString + ": " + e.getMessage());
+                }
+            });
+        } finally {
+            renderTime.recordSince(start);
+        }
+    }
+
+    /**
+     * Renders the accent graphs of many words in parallel.
+     *
+     * @param wordStrings words to render the accents of
+     * @return A future cache key of the graph, or why there is none, per word. The futures never complete
+     * exceptionally.
+     * @see #render(String)
+     */
+    public Map<String, CompletableFuture<ScrapeOutcome<String>>> renderAll(Collection<String> wordStrings) {
+        Map<String, CompletableFuture<ScrapeOutcome<String>>> results = new LinkedHashMap<>();
+        for (String wordString : wordStrings) {
+            results.put(wordString, CompletableFuture.supplyAsync(() -> render(wordString), ForkJoinPool.commonPool())
+                    .exceptionally(e -> ScrapeOutcome.permanentError("Cannot render accent of " + wordString + ": "
+                            + e.getMessage())));
+        }
+        return results;
+    }
+
+    /**
+     * Helper method for {@link #accentOf(String)}; parses an accent type.
+     *
+     * @param accentType accent type from the dictionary, e.g. {@code 2}, or {@code 1,2} for words with several accents
+     * @return The first accent, or {@code null} if the dictionary has none (e.g. {@code *}).
+     */
+    private static Integer typeOf(String accentType) {
+        try {
+            return Integer.parseInt(accentType.split(",")[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method for {@link #accentOf(String)}; converts katakana, as in the dictionary, to hiragana.
+     *
+     * @param kana reading in katakana
+     * @return The reading in hiragana; other characters (e.g. ー) are kept.
+     */
+    private static String hiragana(CharSequence kana) {
+        StringBuilder result = new StringBuilder(kana.length());
+        for (int i = 0; i < kana.length(); i++) {
+            char c = kana.charAt(i);
+            result.append(c >= 'ァ' && c <= 'ヶ' ? (char) (c - 'ァ' + 'ぁ') : c);
+        }
+        return result.toString();
+    }
+}
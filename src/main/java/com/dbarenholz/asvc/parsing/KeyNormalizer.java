@@ -0,0 +1,166 @@
+package com.dbarenholz.asvc.parsing;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.metrics.Metrics;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Normalizes words into keys, so that spellings of the same word share cache entries and are the same
+ * {@link com.dbarenholz.asvc.vocabitem.VocabItem}. Which spellings are folded together is configured by
+ * {@link Settings#keyFolding}, as a comma-separated list of {@link Fold}s.
+ *
+ * Keys are only used to look things up: pages are still downloaded for the word as written. Most words (kanji and
+ * hiragana) have nothing to fold; they are checked in a single scan, and returned as is.
+ */
+public class KeyNormalizer {
+
+    /**
+     * Folding rules.
+     */
+    public enum Fold {
+        NFKC,     // Unicode compatibility normalization: full-width ＡＢＣ and half-width ｶﾅ become ABC and カナ
+        KANA,     // katakana become hiragana: ネコ and ねこ are the same word
+        ITERATION // kana iteration marks are spelled out (いすゞ is いすず), repeated kanji use 々 (人人 is 人々)
+    }
+
+    private static final KeyNormalizer knInstance = new KeyNormalizer(parse(Settings.keyFolding));
+
+    /**
+     * @return the normalizer configured in {@link Settings}
+     */
+    public static KeyNormalizer getNormalizer() {
+        return knInstance;
+    }
+
+    // words whose key differs from the word, i.e. lookups that would have missed the cache without folding
+    private static final LongAdder folded = Metrics.counter("key.folded");
+
+    private final Set<Fold> folds;
+
+    /**
+     * Creates a normalizer.
+     *
+     * @param folds folding rules to apply
+     */
+    public KeyNormalizer(Set<Fold> folds) {
+        this.folds = folds.isEmpty() ? EnumSet.noneOf(Fold.class) : EnumSet.copyOf(folds);
+    }
+
+    /**
+     * Normalizes a word into its key, counting it in the {@code key.folded} metric if anything is folded.
+     *
+     * @param word word to normalize
+     * @return The key of {@code word}; {@code word} itself if nothing is folded.
+     */
+    public String normalize(String word) {
+        return normalize(word, folded);
+    }
+
+    /**
+     * Normalizes a word into its key, e.g. a reading rather than a word, which is counted in a metric of its own.
+     *
+     * @param word    word to normalize
+     * @param counter counter to increment if anything is folded
+     * @return The key of {@code word}; {@code word} itself if nothing is folded.
+     */
+    public String normalize(String word, LongAdder counter) {
+        if (isNormal(word)) {
+            return word;
+        }
+
+        String key = folds.contains(Fold.NFKC) ? Normalizer.normalize(word, Normalizer.Form.NFKC) : word;
+        StringBuilder result = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            char previous = result.length() == 0 ? 0 : result.charAt(result.length() - 1);
+
+            if (folds.contains(Fold.KANA) && c >= 'ァ' && c <= 'ヶ') {
+                c = (char) (c - 'ァ' + 'ぁ');
+            } else if (folds.contains(Fold.KANA) && (c == 'ヽ' || c == 'ヾ')) {
+                c = (char) (c - 'ヽ' + 'ゝ');
+            }
+
+            if (folds.contains(Fold.ITERATION) && previous != 0) {
+                if (c == 'ゝ' || c == 'ヽ') {
+                    c = previous;
+                } else if (c == 'ゞ' || c == 'ヾ') {
+                    c = voiced(previous);
+                } else if (c == previous && isKanji(c)) {
+                    c = '々';
+                }
+            }
+            result.append(c);
+        }
+
+        key = result.toString();
+        if (!key.equals(word)) {
+            counter.increment();
+        }
+        return key;
+    }
+
+    /**
+     * Helper method for {@link #normalize(String, LongAdder)}; checks, without allocating, whether a word has nothing to fold.
+     *
+     * @param word word to check
+     * @return {@code true} if the key of {@code word} is {@code word} itself, {@code false} if it may not be
+     */
+    private boolean isNormal(String word) {
+        char previous = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            boolean hiragana = c >= 'ぁ' && c <= 'ゖ';
+            boolean katakana = c >= 'ァ' && c <= 'ヶ' || c == 'ー';
+            boolean ascii = c >= ' ' && c <= '~';
+            boolean kanji = isKanji(c) && !(c == previous && folds.contains(Fold.ITERATION));
+
+            if (!(hiragana || ascii || kanji || c == '々' || (katakana && !folds.contains(Fold.KANA)))) {
+                return folds.isEmpty();
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    /**
+     * @param c character
+     * @return {@code true} if {@code c} is a CJK unified ideograph
+     */
+    private static boolean isKanji(char c) {
+        return c >= '一' && c <= '鿿';
+    }
+
+    /**
+     * Helper method for {@link #normalize(String, LongAdder)}; voices a kana, for the voiced iteration mark ゞ.
+     *
+     * @param kana hiragana or katakana
+     * @return The voiced kana (e.g. ず for す), or {@code kana} if it has no voiced form.
+     */
+    private static char voiced(char kana) {
+        char hiragana = kana >= 'ァ' && kana <= 'ヶ' ? (char) (kana - 'ァ' + 'ぁ') : kana;
+        boolean voiceable = (hiragana >= 'か' && hiragana <= 'ぢ' && (hiragana - 'か') % 2 == 0)
+                || hiragana == 'つ' || hiragana == 'て' || hiragana == 'と'
+                || (hiragana >= 'は' && hiragana <= 'ほ' && (hiragana - 'は') % 3 == 0);
+        return voiceable ? (char) (kana + 1) : kana;
+    }
+
+    /**
+     * Helper method for the configured normalizer; parses the folding rules in {@link Settings#keyFolding}.
+     *
+     * @param folds comma-separated names of folding rules, e.g. {@code NFKC,KANA}; empty to fold nothing
+     * @return The folding rules.
+     */
+    private static Set<Fold> parse(String folds) {
+        return Arrays.stream(folds.split(","))
+                .map(String::strip)
+                .filter(fold -> !fold.isEmpty())
+                .map(Fold::valueOf)
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(Fold.class)));
+    }
+}
@@ -0,0 +1,136 @@
+package com.dbarenholz.asvc.parsing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pitch accent of a word in Tokyo Japanese, as a list of morae and the position of the accent nucleus (the last high
+ * mora before the pitch drops):
+ * <ul>
+ *     <li>0 (heiban): low, then high up to and including a following particle;</li>
+ *     <li>1 (atamadaka): high, then low;</li>
+ *     <li>n (nakadaka, or odaka if n is the last mora): low, high up to mora n, then low, including a following
+ *     particle.</li>
+ * </ul>
+ */
+public class PitchAccent {
+
+    // small kana that do not form a mora of their own, but belong to the preceding one
+    private static final String SMALL_KANA = "ぁぃぅぇぉゃゅょゎァィゥェォャュョヮ";
+
+    private final List<String> morae;
+    private final int nucleus;
+
+    /**
+     * Creates a pitch accent.
+     *
+     * @param kana    reading of the word, in hiragana or katakana
+     * @param nucleus mora after which the pitch drops, counting from 1; 0 if it does not drop
+     */
+    public PitchAccent(String kana, int nucleus) {
+        this.morae = morae(kana);
+        this.nucleus = nucleus;
+    }
+
+    /**
+     * Splits a reading into morae. Small kana (e.g. the ょ of しょ) belong to the preceding mora; ん, っ and ー are
+     * morae of their own.
+     *
+     * @param kana reading, in hiragana or katakana
+     * @return The morae of the reading.
+     */
+    public static List<String> morae(String kana) {
+        List<String> morae = new ArrayList<>();
+        for (int i = 0; i < kana.length(); i++) {
+            char c = kana.charAt(i);
+            if (SMALL_KANA.indexOf(c) >= 0 && !morae.isEmpty()) {
+                morae.set(morae.size() - 1, morae.get(morae.size() - 1) + c);
+            } else {
+                morae.add(String.valueOf(c));
+            }
+        }
+        return morae;
+    }
+
+    /**
+     * @return morae of the word
+     */
+    public List<String> getMorae() {
+        return Collections.unmodifiableList(morae);
+    }
+
+    /**
+     * @return mora after which the pitch drops, counting from 1; 0 if it does not drop
+     */
+    public int getNucleus() {
+        return nucleus;
+    }
+
+    /**
+     * @param mora index of a mora, counting from 0; {@code getMorae().size()} for a following particle
+     * @return {@code true} if the mora is pronounced high, {@code false} if low
+     */
+    public boolean isHigh(int mora) {
+        if (nucleus == 0) {
+            return mora > 0;
+        }
+        if (nucleus == 1) {
+            return mora == 0;
+        }
+        return mora > 0 && mora < nucleus;
+    }
+
+    /**
+     * Renders the accent as a graph: a dot per mora, high or low, connected by lines, followed by a hollow dot for a
+     * particle, with the morae written below.
+     *
+     * @return An SVG image of the graph.
+     */
+    public String toSvg() {
+        int step = 24;
+        int high = 10;
+        int low = 30;
+        int width = step * (morae.size() + 1);
+
+        StringBuilder svg = new StringBuilder();
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                .append("\" height=\"56\" viewBox=\"0 0 ").append(width).append(" 56\">");
+
+        // line through all dots, including the particle
+        svg.append("<polyline fill=\"none\" stroke=\"black\" stroke-width=\"2\" points=\"");
+        for (int i = 0; i <= morae.size(); i++) {
+            svg.append(i == 0 ? "" : " ").append(step / 2 + i * step).append(',').append(isHigh(i) ? high : low);
+        }
+        svg.append("\"/>");
+
+        for (int i = 0; i <= morae.size(); i++) {
+            int x = step / 2 + i * step;
+            boolean particle = i == morae.size();
+            svg.append("<circle cx=\"").append(x).append("\" cy=\"").append(isHigh(i) ? high : low)
+                    .append("\" r=\"5\" stroke=\"black\" stroke-width=\"2\" fill=\"")
+                    .append(particle ? "white" : "black").append("\"/>");
+            if (!particle) {
+                svg.append("<text x=\"").append(x).append("\" y=\"52\" font-size=\"14\" text-anchor=\"middle\">")
+                        .append(morae.get(i)).append("</text>");
+            }
+        }
+
+        return svg.append("</svg>").toString();
+    }
+
+    /**
+     * @return the reading, with the accent nucleus marked by ꜜ (e.g. はꜜし), for logging
+     */
+    @Override
+    public String toString() {
+        StringBuilder marked = new StringBuilder();
+        for (int i = 0; i < morae.size(); i++) {
+            marked.append(morae.get(i));
+            if (i + 1 == nucleus) {
+                marked.append('ꜜ');
+            }
+        }
+        return marked.toString();
+    }
+}
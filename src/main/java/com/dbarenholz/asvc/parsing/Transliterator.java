@@ -0,0 +1,300 @@
+package com.dbarenholz.asvc.parsing;
+
+import com.dbarenholz.asvc.Settings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transliterates kana readings (hiragana or katakana, as given by kuromoji) to romaji.
+ *
+ * All romaji are looked up in tables indexed by code point, built once per {@link Romanization}: a table of single
+ * kana, and a table of a kana followed by a small kana (yōon, e.g. しゃ, and loanword combinations, e.g. ファ). A
+ * reading is transliterated in a single pass that only appends to the output, handling
+ * <ul>
+ *     <li>sokuon: っ doubles the next consonant (e.g. がっこう gakkō; っち tchi in Hepburn);</li>
+ *     <li>ん before a vowel or y, which is written n' (e.g. きんえん kin'en);</li>
+ *     <li>long vowels, written ー in katakana or as おう, おお and うう in hiragana, as configured by
+ *     {@link LongVowels}.</li>
+ * </ul>
+ * Characters that are not kana are copied as is. Transliterators are immutable and thread-safe.
+ */
+public class Transliterator {
+
+    /**
+     * Romanization systems.
+     */
+    public enum Romanization {
+        HEPBURN, // し shi, ち chi, つ tsu, ふ fu, じ ji
+        KUNREI,  // し si, ち ti, つ tu, ふ hu, じ zi
+        NIHON    // as Kunrei, but ぢ di, づ du, を wo
+    }
+
+    /**
+     * Ways to write long vowels.
+     */
+    public enum LongVowels {
+        MACRON,     // とうきょう tōkyō, ラーメン rāmen
+        CIRCUMFLEX, // とうきょう tôkyô, ラーメン râmen
+        AS_WRITTEN  // とうきょう toukyou, ラーメン raamen
+    }
+
+    // hiragana from U+3041 (ぁ) to U+3096 (ゖ); katakana are the same, U+0060 higher
+    private static final char FIRST = 'ぁ';
+    private static final int SIZE = 'ゖ' - 'ぁ' + 1;
+    private static final int KATAKANA_OFFSET = 'ァ' - 'ぁ';
+
+    // romaji of every kana in Hepburn; っ (-) and ん (n) are handled separately
+    private static final String HEPBURN = "a a i i u u e e o o ka ga ki gi ku gu ke ge ko go sa za shi ji su zu se ze"
+            + " so zo ta da chi ji - tsu zu te de to do na ni nu ne no ha ba pa hi bi pi fu bu pu he be pe ho bo po"
+            + " ma mi mu me mo ya ya yu yu yo yo ra ri ru re ro wa wa i e o n vu ka ke";
+
+    // small kana that combine with the preceding kana
+    private static final String SMALL = "ぁぃぅぇぉゃゅょゎ";
+
+    // combinations with a small vowel, mostly in loanwords; the same in every system
+    private static final String[] LOANWORDS = {
+            "ふぁ fa", "ふぃ fi", "ふぇ fe", "ふぉ fo", "ふゅ fyu", "てぃ ti", "でぃ di", "とぅ tu", "どぅ du",
+            "てゅ tyu", "でゅ dyu", "うぃ wi", "うぇ we", "うぉ wo", "ゔぁ va", "ゔぃ vi", "ゔぇ ve", "ゔぉ vo",
+            "ゔゅ vyu", "しぇ she", "じぇ je", "ちぇ che", "つぁ tsa", "つぃ tsi", "つぇ tse", "つぉ tso", "いぇ ye",
+            "くぁ kwa", "ぐぁ gwa", "くぃ kwi", "くぇ kwe", "くぉ kwo"
+    };
+
+    private static final Map<Romanization, String[]> singles = new HashMap<>();
+    private static final Map<Romanization, String[]> pairs = new HashMap<>();
+
+    static {
+        for (Romanization system : Romanization.values()) {
+            String[] single = HEPBURN.split(" ");
+            if (system != Romanization.HEPBURN) {
+                set(single, 'し', "si");
+                set(single, 'じ', "zi");
+                set(single, 'ち', "ti");
+                set(single, 'ぢ', system == Romanization.NIHON ? "di" : "zi");
+                set(single, 'つ', "tu");
+                set(single, 'づ', system == Romanization.NIHON ? "du" : "zu");
+                set(single, 'ふ', "hu");
+            }
+            if (system == Romanization.NIHON) {
+                set(single, 'ゐ', "wi");
+                set(single, 'ゑ', "we");
+                set(single, 'を', "wo");
+            }
+
+            // yōon: the i of an i-row kana becomes y + the small vowel; Hepburn drops the y after sh, ch and j
+            String[] pair = new String[SIZE * SMALL.length()];
+            for (int kana = 0; kana < SIZE; kana++) {
+                String romaji = single[kana];
+                if (romaji.length() < 2 || !romaji.endsWith("i") || "ゐぃ".indexOf((char) (FIRST + kana)) >= 0) {
+                    continue;
+                }
+                String stem = romaji.substring(0, romaji.length() - 1);
+                boolean palatal = stem.endsWith("sh") || stem.endsWith("ch") || stem.equals("j");
+                pair[kana * SMALL.length() + SMALL.indexOf('ゃ')] = stem + (palatal ? "" : "y") + "a";
+                pair[kana * SMALL.length() + SMALL.indexOf('ゅ')] = stem + (palatal ? "" : "y") + "u";
+                pair[kana * SMALL.length() + SMALL.indexOf('ょ')] = stem + (palatal ? "" : "y") + "o";
+            }
+            for (String loanword : LOANWORDS) {
+                pair[(loanword.charAt(0) - FIRST) * SMALL.length() + SMALL.indexOf(loanword.charAt(1))] =
+                        loanword.substring(3);
+            }
+
+            singles.put(system, single);
+            pairs.put(system, pair);
+        }
+    }
+
+    private static final Transliterator tInstance = new Transliterator(
+            Romanization.valueOf(Settings.romajiSystem), LongVowels.valueOf(Settings.romajiLongVowels));
+
+    /**
+     * @return the transliterator configured in {@link Settings}
+     */
+    public static Transliterator getTransliterator() {
+        return tInstance;
+    }
+
+    private final Romanization system;
+    private final LongVowels longVowels;
+    private final String[] single;
+    private final String[] pair;
+
+    /**
+     * Creates a transliterator.
+     *
+     * @param system     romanization system
+     * @param longVowels how to write long vowels
+     */
+    public Transliterator(Romanization system, LongVowels longVowels) {
+        this.system = system;
+        this.longVowels = longVowels;
+        this.single = singles.get(system);
+        this.pair = pairs.get(system);
+    }
+
+    /**
+     * Transliterates a reading to romaji.
+     *
+     * @param kana reading, in hiragana or katakana
+     * @return The reading in romaji.
+     */
+    public String toRomaji(CharSequence kana) {
+        StringBuilder romaji = new StringBuilder(kana.length() * 2);
+        appendTo(romaji, kana);
+        return romaji.toString();
+    }
+
+    /**
+     * Transliterates a reading to romaji, appending to {@code out}. Allocates nothing but the growth of {@code out}.
+     *
+     * @param out  builder to append the romaji to
+     * @param kana reading, in hiragana or katakana
+     */
+    public void appendTo(StringBuilder out, CharSequence kana) {
+        boolean sokuon = false;  // っ before this kana
+        boolean n = false;       // ん before this kana
+        char vowel = 0;          // vowel the output ends in, if it may be lengthened
+
+        for (int i = 0; i < kana.length(); i++) {
+            char c = kana.charAt(i);
+            int index = indexOf(c);
+
+            if (c == 'ー') {
+                vowel = lengthen(out, vowel);
+                continue;
+            }
+            if (index < 0) {
+                // not kana: copy as is
+                flushN(out, n, null);
+                n = false;
+                sokuon = false;
+                vowel = 0;
+                out.append(c);
+                continue;
+            }
+            if (c == 'っ' || c == 'ッ') {
+                flushN(out, n, null);
+                n = false;
+                sokuon = true;
+                vowel = 0;
+                continue;
+            }
+            if (c == 'ん' || c == 'ン') {
+                flushN(out, n, null);
+                n = true;
+                sokuon = false;
+                vowel = 0;
+                continue;
+            }
+
+            // long vowels written out in kana: おう, おお, うう
+            if (longVowels != LongVowels.AS_WRITTEN && !n && !sokuon
+                    && ((vowel == 'o' && (c == 'う' || c == 'お' || c == 'ウ' || c == 'オ'))
+                    || (vowel == 'u' && (c == 'う' || c == 'ウ')))) {
+                vowel = lengthen(out, vowel);
+                continue;
+            }
+
+            // a kana followed by a small kana, e.g. しゃ, or a single kana
+            String romaji = null;
+            if (i + 1 < kana.length()) {
+                int small = SMALL.indexOf(hiragana(kana.charAt(i + 1)));
+                if (small >= 0) {
+                    romaji = pair[index * SMALL.length() + small];
+                    if (romaji != null) {
+                        i++;
+                    }
+                }
+            }
+            if (romaji == null) {
+                romaji = single[index];
+            }
+
+            flushN(out, n, romaji);
+            n = false;
+            if (sokuon) {
+                char consonant = romaji.charAt(0);
+                if (system == Romanization.HEPBURN && romaji.startsWith("ch")) {
+                    out.append('t');
+                } else if ("aiueon".indexOf(consonant) < 0) {
+                    out.append(consonant);
+                }
+                sokuon = false;
+            }
+            out.append(romaji);
+            vowel = romaji.charAt(romaji.length() - 1);
+        }
+
+        flushN(out, n, null);
+    }
+
+    /**
+     * Helper method for {@link #appendTo(StringBuilder, CharSequence)}; writes a pending ん before the next romaji.
+     *
+     * @param out  builder to append to
+     * @param n    {@code true} if a ん is pending
+     * @param next romaji following the ん, or {@code null} if no kana follows
+     */
+    private static void flushN(StringBuilder out, boolean n, String next) {
+        if (n) {
+            out.append('n');
+            if (next != null && "aiueoy".indexOf(next.charAt(0)) >= 0) {
+                out.append('\'');
+            }
+        }
+    }
+
+    /**
+     * Helper method for {@link #appendTo(StringBuilder, CharSequence)}; lengthens the vowel the output ends in.
+     *
+     * @param out   builder to append to
+     * @param vowel vowel the output ends in, or {@code 0} if there is none to lengthen
+     * @return The vowel the output ends in afterwards, i.e. {@code 0} once it is lengthened by a mark, so it is not
+     * lengthened twice.
+     */
+    private char lengthen(StringBuilder out, char vowel) {
+        int mark = "aiueo".indexOf(vowel);
+        if (mark < 0) {
+            return 0;
+        }
+        switch (longVowels) {
+            case MACRON:
+                out.setCharAt(out.length() - 1, "āīūēō".charAt(mark));
+                return 0;
+            case CIRCUMFLEX:
+                out.setCharAt(out.length() - 1, "âîûêô".charAt(mark));
+                return 0;
+            default:
+                out.append(vowel);
+                return vowel;
+        }
+    }
+
+    /**
+     * @param c character
+     * @return index of {@code c} in the tables, for hiragana and katakana alike, or {@code -1} if it is not kana
+     */
+    private static int indexOf(char c) {
+        int index = hiragana(c) - FIRST;
+        return index >= 0 && index < SIZE ? index : -1;
+    }
+
+    /**
+     * @param c character
+     * @return the hiragana of {@code c} if it is katakana, {@code c} otherwise
+     */
+    private static char hiragana(char c) {
+        return c >= 'ァ' && c <= 'ヶ' ? (char) (c - KATAKANA_OFFSET) : c;
+    }
+
+    /**
+     * Helper method for the static initialiser; sets the romaji of a single kana.
+     *
+     * @param table  table of single kana
+     * @param kana   hiragana to set
+     * @param romaji romaji of {@code kana}
+     */
+    private static void set(String[] table, char kana, String romaji) {
+        table[kana - FIRST] = romaji;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dbarenholz.asvc.parsing;
+
+/**
+ * Open-addressing map from 64-bit word hashes to occurrence counts.
+ *
+ * Keys are hashes of a base form, as given by {@link WordHashSet#hash(CharSequence)}, and counts are plain
+ * {@code int}s, so counting a token never allocates (unlike a {@code HashMap<String, Integer>}).
+ *
+ * Not thread-safe.
+ */
+public class WordCounter {
+    private static final long EMPTY = 0L; // marks a free slot; never returned by WordHashSet#hash
+
+    private long[] keys;
+    private int[] counts;
+    private int size = 0;
+
+    /**
+     * Creates an empty counter.
+     */
+    public WordCounter() {
+        this(1024);
+    }
+
+    /**
+     * Creates an empty counter that does not need to grow until {@code expected} distinct words are counted.
+     *
+     * @param expected expected number of distinct words
+     */
+    public WordCounter(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Counts one more occurrence of a word.
+     *
+     * @param key hash of the word
+     */
+    public void increment(long key) {
+        add(key, 1);
+    }
+
+    /**
+     * Counts {@code amount} more occurrences of a word.
+     *
+     * @param key    hash of the word
+     * @param amount number of occurrences to add
+     */
+    public void add(long key, int amount) {
+        int index = indexOf(key);
+
+        if (keys[index] == EMPTY) {
+            keys[index] = key;
+            counts[index] = amount;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        } else {
+            counts[index] += amount;
+        }
+    }
+
+    /**
+     * Adds all counts of another counter to this one.
+     *
+     * @param other counter to add
+     */
+    public void addAll(WordCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of occurrences of a word.
+     *
+     * @param key hash of the word
+     * @return number of occurrences, 0 if the word was never counted
+     */
+    public int get(long key) {
+        int index = indexOf(key);
+        return keys[index] == EMPTY ? 0 : counts[index];
+    }
+
+    /**
+     * @return number of distinct words counted
+     */
+    public int size() {
+        return size;
+    }
+
+    // finds the slot holding key, or the free slot where it should go
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = WordHashSet.mix(key) & mask;
+
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    // doubles the table, keeping it at most half full
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                add(oldKeys[i], oldCounts[i]);
+            }
+        }
+    }
+}
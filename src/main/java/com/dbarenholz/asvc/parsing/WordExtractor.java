@@ -0,0 +1,339 @@
+package com.dbarenholz.asvc.parsing;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+import com.dbarenholz.asvc.metrics.LatencyHistogram;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Extracts words from Japanese text.
+ *
+ * Text is tokenized in chunks that end on a line or sentence boundary, so that input of any size can be streamed
+ * through with a bounded amount of memory. After every chunk, the words that were not seen before are handed to the
+ * sink. Words are deduplicated on a hash of their base form (see {@link WordHashSet}), before any object is created.
+ *
+ * With a parallelism above one, chunks are tokenized concurrently on a fork-join pool, all sharing the same
+ * (thread-safe) kuromoji tokenizer. Each chunk is first deduplicated on its own; chunks are then merged into the
+ * extractor's set of words in input order, so the sink sees exactly what a sequential extractor would produce.
+ *
+ * Words are deduplicated and counted on their {@link KeyNormalizer normalized} base form, so spellings of the same
+ * word are one word.
+ *
+ * Every occurrence of a word is counted (see {@link WordCounter}), so that callers can process the most frequent words
+ * first, or drop rare words altogether. Like words themselves, counts are kept per base form: the occurrences of all
+ * readings of a base form count towards its one word.
+ */
+public class WordExtractor {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    // tokenize once this many chars are buffered, at the last boundary
+    private static final int CHUNK_SIZE = 8192;
+
+    // base forms that kuromoji emits, but that are not words worth learning
+    private static final Pattern NOT_A_WORD = Pattern.compile(
+            "[\u3041-\u3093\u30a1-\u30f3]+" +   // kana
+            "|[0-9]*" +                         // numbers
+            "|[*\\[\\]　”“）「」『（、。!FJM・]"   // punctuation, (space), and stray letters
+    );
+
+    private static final LatencyHistogram tokenizeTime = Metrics.histogram("tokenize.time");
+
+    private final Tokenizer tokenizer;
+    private final KeyNormalizer normalizer = KeyNormalizer.getNormalizer();
+    private final WordHashSet seenWords = new WordHashSet();
+    private final WordCounter counts = new WordCounter(); // guarded by itself, as it is read while extracting
+    private final Consumer<List<VocabItem>> sink;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a sequential extractor. Loading the kuromoji dictionary makes this expensive, so extractors should be
+     * reused.
+     *
+     * @param sink receives, per chunk, the words that were not extracted before
+     */
+    public WordExtractor(Consumer<List<VocabItem>> sink) {
+        this(sink, 1);
+    }
+
+    /**
+     * Creates an extractor. Loading the kuromoji dictionary makes this expensive, so extractors should be reused.
+     *
+     * @param sink        receives, per chunk, the words that were not extracted before
+     * @param parallelism number of chunks to tokenize concurrently; 1 tokenizes on the calling thread
+     */
+    public WordExtractor(Consumer<List<VocabItem>> sink, int parallelism) {
+        this(new Tokenizer(), sink, parallelism);
+    }
+
+    /**
+     * Creates an extractor sharing an already loaded tokenizer, e.g. to extract every request of a service with a
+     * fresh extractor without loading the kuromoji dictionary again.
+     *
+     * @param tokenizer   tokenizer to use, possibly shared with other extractors
+     * @param sink        receives, per chunk, the words that were not extracted before
+     * @param parallelism number of chunks to tokenize concurrently; 1 tokenizes on the calling thread
+     */
+    public WordExtractor(Tokenizer tokenizer, Consumer<List<VocabItem>> sink, int parallelism) {
+        this.tokenizer = tokenizer;
+        this.sink = sink;
+        this.parallelism = Math.max(parallelism, 1);
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    /**
+     * Extracts words from a text that is already in memory.
+     *
+     * @param text text to extract words from
+     */
+    public synchronized void extract(String text) {
+        try {
+            extract(new StringReader(text));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen for a StringReader
+        }
+    }
+
+    /**
+     * Extracts words from a file, reading it lazily.
+     *
+     * @param path    file to extract words from
+     * @param charset encoding of the file
+     * @throws IOException if the file cannot be read
+     */
+    public void extract(Path path, Charset charset) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, charset)) {
+            extract(reader);
+        }
+    }
+
+    /**
+     * Extracts words from a reader, tokenizing chunk by chunk as text is read.
+     *
+     * @param reader reader to extract words from; not closed by this method
+     * @throws IOException if the reader cannot be read
+     */
+    public synchronized void extract(Reader reader) throws IOException {
+        if (pool == null) {
+            chunk(reader, chunk -> merge(tokenize(chunk)));
+            return;
+        }
+
+        // keep a bounded window of chunks in flight, merging the oldest first to preserve input order
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        chunk(reader, chunk -> {
+            if (inFlight.size() >= 2 * parallelism) {
+                merge(join(inFlight.poll()));
+            }
+            inFlight.add(pool.submit(() -> tokenize(chunk)));
+        });
+        while (!inFlight.isEmpty()) {
+            merge(join(inFlight.poll()));
+        }
+    }
+
+    /**
+     * @return number of distinct words extracted so far
+     */
+    public synchronized int size() {
+        return seenWords.size();
+    }
+
+    /**
+     * Retrieves how often a word occurred in all text extracted so far. May be called while extracting.
+     *
+     * @param word word to look up
+     * @return number of occurrences of the word's base form, in any reading
+     */
+    public int count(VocabItem word) {
+        long key = WordHashSet.hash(word.getKey());
+        synchronized (counts) {
+            return counts.get(key);
+        }
+    }
+
+    /**
+     * @return comparator ordering words from most to least frequent, and alphabetically for equal frequencies
+     */
+    public Comparator<VocabItem> byFrequency() {
+        return Comparator.comparingInt(this::count).reversed().thenComparing(VocabItem::getKanji);
+    }
+
+    /**
+     * Selects the most frequent words, e.g. to cut a large corpus down before scraping.
+     *
+     * @param words words to select from
+     * @param limit maximum number of words to select
+     * @return At most {@code limit} words, from most to least frequent.
+     */
+    public List<VocabItem> mostFrequent(Collection<VocabItem> words, int limit) {
+        // count every word once, rather than once per comparison
+        Map<VocabItem, Integer> frequencies = new HashMap<>();
+        synchronized (counts) {
+            for (VocabItem word : words) {
+                frequencies.put(word, counts.get(WordHashSet.hash(word.getKey())));
+            }
+        }
+
+        return words.stream()
+                .sorted(Comparator.comparingInt((VocabItem word) -> frequencies.get(word)).reversed()
+                        .thenComparing(VocabItem::getKanji))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Helper method; splits text from a reader into chunks ending on a boundary.
+     *
+     * @param reader reader to split
+     * @param chunks receives every chunk, in order
+     * @throws IOException if the reader cannot be read
+     */
+    private static void chunk(Reader reader, Consumer<String> chunks) throws IOException {
+        StringBuilder pending = new StringBuilder(2 * CHUNK_SIZE);
+        char[] buffer = new char[CHUNK_SIZE];
+        int read;
+
+        while ((read = reader.read(buffer)) != -1) {
+            pending.append(buffer, 0, read);
+
+            if (pending.length() >= CHUNK_SIZE) {
+                // cut at the last boundary; without any boundary, cut anyway once the chunk gets too large
+                int end = lastBoundary(pending);
+                if (end < 0 && pending.length() >= 4 * CHUNK_SIZE) {
+                    end = pending.length();
+                }
+                if (end > 0) {
+                    chunks.accept(pending.substring(0, end));
+                    pending.delete(0, end);
+                }
+            }
+        }
+
+        if (pending.length() > 0) {
+            chunks.accept(pending.toString());
+        }
+    }
+
+    /**
+     * Helper method; tokenizes a single chunk. Safe to call from multiple threads at once.
+     *
+     * @param chunk text ending on a boundary
+     * @return The distinct words in the chunk, and how often each occurred.
+     */
+    private Chunk tokenize(String chunk) {
+        long start = System.nanoTime();
+        List<Token> tokens = tokenizer.tokenize(chunk);
+        tokenizeTime.recordSince(start);
+
+        Matcher notAWord = NOT_A_WORD.matcher("");
+        WordHashSet chunkWords = new WordHashSet(tokens.size());
+        Chunk result = new Chunk(tokens.size() / 4);
+        for (Token token : tokens) {
+            String baseForm = token.getWrittenBaseForm();
+            if (notAWord.reset(baseForm).matches()) {
+                continue;
+            }
+            long hash = WordHashSet.hash(normalizer.normalize(baseForm));
+            result.counts.increment(hash);
+            if (chunkWords.add(hash)) {
+                result.distinct.add(token);
+            }
+        }
+
+        logger.debug("Tokenized chunk of {} chars, {} distinct words", chunk.length(), result.distinct.size());
+        return result;
+    }
+
+    /**
+     * Helper method; hands the words of a tokenized chunk that were not seen before to the sink.
+     * Only the first occurrence of a word becomes a VocabItem; repeats cost a hash, not an object.
+     *
+     * @param chunk tokenized chunk, as given by {@link #tokenize(String)}
+     */
+    private void merge(Chunk chunk) {
+        synchronized (counts) {
+            counts.addAll(chunk.counts);
+        }
+
+        List<VocabItem> newWords = new ArrayList<>();
+        for (Token token : chunk.distinct) {
+            String baseForm = token.getWrittenBaseForm();
+            if (seenWords.add(WordHashSet.hash(normalizer.normalize(baseForm)))) {
+                newWords.add(new VocabItem(baseForm, token.getKanaBase()));
+            }
+        }
+
+        if (!newWords.isEmpty()) {
+            sink.accept(newWords);
+        }
+    }
+
+    /**
+     * Helper method; waits for a chunk that is being tokenized in parallel.
+     *
+     * @param chunk future result of {@link #tokenize(String)}
+     * @return The tokenized chunk.
+     */
+    private static Chunk join(Future<Chunk> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while tokenizing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot tokenize chunk", e.getCause());
+        }
+    }
+
+    /**
+     * Helper method; finds the end of the last line or sentence in a buffer.
+     *
+     * @param text buffered text
+     * @return index just after the last boundary, or -1 if there is none
+     */
+    private static int lastBoundary(CharSequence text) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            switch (text.charAt(i)) {
+                case '\n':
+                case '。':
+                case '！':
+                case '？':
+                case '!':
+                case '?':
+                    return i + 1;
+                default:
+                    break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Result of tokenizing a single chunk: the first token of every distinct word, and the counts of all words.
+     */
+    private static class Chunk {
+        final List<Token> distinct = new ArrayList<>();
+        final WordCounter counts;
+
+        Chunk(int expectedWords) {
+            counts = new WordCounter(expectedWords);
+        }
+    }
+}
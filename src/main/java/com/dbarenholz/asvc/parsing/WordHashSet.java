@@ -0,0 +1,139 @@
+package com.dbarenholz.asvc.parsing;
+
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of 64-bit word hashes.
+ *
+ * Used to deduplicate words while tokenizing, before any {@link VocabItem} is created: only the first occurrence of
+ * a word results in an object, all others only cost a hash and a probe in a primitive array.
+ * Words are hashed with {@link #hash(CharSequence)}; with 64 bits, collisions are negligible for any realistic corpus.
+ *
+ * Not thread-safe.
+ */
+public class WordHashSet {
+    private static final long EMPTY = 0L;        // marks a free slot; a word hashing to 0 is stored as ZERO_HASH
+    private static final long ZERO_HASH = 1L;
+
+    private long[] slots;
+    private int size = 0;
+
+    /**
+     * Creates an empty set.
+     */
+    public WordHashSet() {
+        this(1024);
+    }
+
+    /**
+     * Creates an empty set that does not need to grow until {@code expected} hashes are added.
+     *
+     * @param expected expected number of hashes
+     */
+    public WordHashSet(int expected) {
+        slots = new long[Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1];
+    }
+
+    /**
+     * Hashes a word with 64-bit FNV-1a over its chars.
+     *
+     * @param word word to hash
+     * @return 64-bit hash of {@code word}
+     */
+    public static long hash(CharSequence word) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? ZERO_HASH : hash;
+    }
+
+    /**
+     * Adds a hash to the set.
+     *
+     * @param hash hash to add, as given by {@link #hash(CharSequence)}
+     * @return {@code true} if the hash was not yet present, {@code false} otherwise.
+     */
+    public boolean add(long hash) {
+        if (hash == EMPTY) {
+            hash = ZERO_HASH;
+        }
+
+        int mask = slots.length - 1;
+        int index = mix(hash) & mask;
+
+        while (slots[index] != EMPTY) {
+            if (slots[index] == hash) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        slots[index] = hash;
+        if (++size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a hash is in the set.
+     *
+     * @param hash hash to look for, as given by {@link #hash(CharSequence)}
+     * @return {@code true} if present, {@code false} otherwise.
+     */
+    public boolean contains(long hash) {
+        if (hash == EMPTY) {
+            hash = ZERO_HASH;
+        }
+
+        int mask = slots.length - 1;
+        int index = mix(hash) & mask;
+
+        while (slots[index] != EMPTY) {
+            if (slots[index] == hash) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of hashes in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all hashes from the set.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    // doubles the table, keeping it at most half full
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        size = 0;
+        for (long hash : old) {
+            if (hash != EMPTY) {
+                add(hash);
+            }
+        }
+    }
+
+    // spreads the high bits of a hash over the low bits used as index
+    static int mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * The parsing package turns lyrics, or any other Japanese text, into {@link com.dbarenholz.asvc.vocabitem.VocabItem}s
+ * using kuromoji. Input is read and tokenized chunk by chunk, so arbitrarily large texts can be processed with a flat
+ * memory profile, and words become available while the rest of the text is still being read.
+ *
+ * @author dbarenholz
+ * @version 1.0
+ * @since 13
+ *
+ * @see com.dbarenholz.asvc.parsing.WordExtractor
+ */
+package com.dbarenholz.asvc.parsing;
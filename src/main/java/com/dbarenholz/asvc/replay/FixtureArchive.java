@@ -0,0 +1,158 @@
+package com.dbarenholz.asvc.replay;
+
+import com.dbarenholz.asvc.cache.CacheStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Archive of recorded HTTP responses (fixtures), to replay with a {@link FixtureServer}.
+ *
+ * Responses are stored in a {@link CacheStore}, keyed by their URL without scheme and fragment, with percent-encoding
+ * decoded (e.g. {@code jisho.org/word/夢}). The status code and content type are kept in the entry metadata.
+ */
+public class FixtureArchive {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private static final String STATUS = "status";
+    private static final String CONTENT_TYPE = "content-type";
+
+    private final CacheStore store;
+
+    /**
+     * Opens a fixture archive, creating it on the first recorded response.
+     *
+     * @param root directory of the archive
+     */
+    public FixtureArchive(Path root) {
+        this.store = CacheStore.at(root);
+    }
+
+    /**
+     * Records a response.
+     *
+     * @param URL         requested URL
+     * @param status      HTTP status code of the response
+     * @param contentType content type of the response, or {@code null} if unknown
+     * @param body        body of the response
+     */
+    public void record(String URL, int status, String contentType, byte[] body) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put(STATUS, Integer.toString(status));
+        if (contentType != null) {
+            metadata.put(CONTENT_TYPE, contentType);
+        }
+
+        String key = keyOf(URL);
+        try {
+            store.put(key, body, metadata);
+            logger.debug("Recorded {} ({}, {} bytes)", key, status, body.length);
+        } catch (IOException e) {
+            logger.warn("Cannot record {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up a recorded response.
+     *
+     * @param key key of the response, as given by {@link #keyOf(String)}
+     * @return The recorded response, or {@code null} if there is none.
+     * @throws IOException if the recorded response cannot be read
+     */
+    public Fixture replay(String key) throws IOException {
+        if (!store.contains(key)) {
+            return null;
+        }
+
+        try (CacheStore.Entry entry = store.open(key)) {
+            return new Fixture(
+                    Integer.parseInt(entry.metadata().getOrDefault(STATUS, "200")),
+                    entry.metadata().get(CONTENT_TYPE),
+                    entry.body().readAllBytes()
+            );
+        }
+    }
+
+    /**
+     * Computes the key of a URL: without scheme and fragment, and with percent-encoding decoded, such that the key is
+     * the same whether or not the client encoded the URL.
+     *
+     * @param URL URL or path (e.g. {@code https://jisho.org/word/%E5%A4%A2}, or {@code jisho.org/word/夢})
+     * @return key of the URL (e.g. {@code jisho.org/word/夢})
+     */
+    public static String keyOf(String URL) {
+        String key = URL;
+
+        int scheme = key.indexOf("://");
+        if (scheme >= 0) {
+            key = key.substring(scheme + 3);
+        }
+        int fragment = key.indexOf('#');
+        if (fragment >= 0) {
+            key = key.substring(0, fragment);
+        }
+        if (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+
+        return percentDecode(key);
+    }
+
+    /**
+     * Helper method for {@link #keyOf(String)}; decodes {@code %XX} sequences as UTF-8, leaving everything else as is.
+     *
+     * @param s string to decode
+     * @return decoded string
+     */
+    private static String percentDecode(String s) {
+        if (s.indexOf('%') < 0) {
+            return s;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length());
+        byte[] raw = s.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '%' && i + 2 < raw.length
+                    && Character.digit(raw[i + 1], 16) >= 0 && Character.digit(raw[i + 2], 16) >= 0) {
+                bytes.write(Character.digit(raw[i + 1], 16) * 16 + Character.digit(raw[i + 2], 16));
+                i += 2;
+            } else {
+                bytes.write(raw[i]);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A recorded response.
+     */
+    public static class Fixture {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        private Fixture(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.dbarenholz.asvc.replay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server replaying a {@link FixtureArchive}, for repeatable tests and load tests without the network.
+ *
+ * A recorded response for {@code https://jisho.org/word/夢} is served at {@code http://localhost:<port>/jisho.org/word/夢},
+ * so pointing the scrapers at the server only takes overriding their base URLs, e.g.
+ * {@code -Dasvc.jisho=http://localhost:8080/jisho.org/} (see {@link com.dbarenholz.asvc.Settings}).
+ *
+ * Every response can be delayed by a fixed latency, replaced by a {@code 503} with some probability, and throttled to a
+ * number of bytes per second, to mimic slow or unreliable websites. Responses that were not recorded are {@code 404}.
+ * HEAD requests, as sent by the connectivity monitor, always succeed.
+ */
+public class FixtureServer {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private final FixtureArchive archive;
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    private final long latencyMillis;
+    private final double errorRate;
+    private final long bytesPerSecond;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a fixture server on the loopback address. It does not serve anything until {@link #start() started}.
+     *
+     * @param archive        recorded responses to serve
+     * @param port           port to listen on, or {@code 0} for any free port
+     * @param latencyMillis  delay before every response, in milliseconds
+     * @param errorRate      probability in [0, 1] that a response is replaced by a {@code 503}
+     * @param bytesPerSecond maximum rate at which each response body is sent, or {@code 0} for no limit
+     * @throws IOException if the server cannot listen on {@code port}
+     */
+    public FixtureServer(FixtureArchive archive, int port, long latencyMillis, double errorRate, long bytesPerSecond)
+            throws IOException {
+        this.archive = archive;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.bytesPerSecond = bytesPerSecond;
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "asvc-fixture-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts serving.
+     */
+    public void start() {
+        server.start();
+        logger.info("Replaying fixtures at {} (latency {} ms, error rate {}, {} bytes/s)",
+                baseURL(), latencyMillis, errorRate, bytesPerSecond == 0 ? "unlimited" : bytesPerSecond);
+    }
+
+    /**
+     * Stops serving, and logs how many requests were served.
+     */
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        logger.info("Fixture server served {} responses, {} not recorded, {} injected errors",
+                served.get(), missing.get(), failed.get());
+    }
+
+    /**
+     * @return URL of the server, to which the recorded host name is appended (e.g. {@code http://127.0.0.1:8080/})
+     */
+    public String baseURL() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/";
+    }
+
+    /**
+     * Handles a single request.
+     *
+     * @param exchange request and response
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            sleep(latencyMillis);
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failed.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String raw = exchange.getRequestURI().getRawPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            String key = FixtureArchive.keyOf(query == null ? raw : raw + "?" + query);
+
+            FixtureArchive.Fixture fixture = archive.replay(key);
+            if (fixture == null) {
+                missing.incrementAndGet();
+                logger.debug("No fixture recorded for {}", key);
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            served.incrementAndGet();
+            if (fixture.getContentType() != null) {
+                exchange.getResponseHeaders().set("Content-Type", fixture.getContentType());
+            }
+            byte[] body = fixture.getBody();
+            exchange.sendResponseHeaders(fixture.getStatus(), body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                send(exchange.getResponseBody(), body);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Cannot serve {}: {}", exchange.getRequestURI(), e.getMessage());
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Helper method for {@link #handle(HttpExchange)}; sends a body, throttled to {@link #bytesPerSecond}.
+     *
+     * @param out  stream to send the body to
+     * @param body body to send
+     * @throws IOException if the body cannot be sent
+     */
+    private void send(OutputStream out, byte[] body) throws IOException {
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+
+        // send in slices of a tenth of a second
+        int slice = (int) Math.max(1, bytesPerSecond / 10);
+        for (int offset = 0; offset < body.length; offset += slice) {
+            out.write(body, offset, Math.min(slice, body.length - offset));
+            out.flush();
+            sleep(100);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a fixture server until the process is killed.
+     *
+     * Usage: {@code FixtureServer <archive> [port] [latency ms] [error rate] [bytes per second]}
+     *
+     * @param args command line arguments, see above
+     * @throws IOException if the server cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            logger.error("Usage: FixtureServer <archive> [port] [latency ms] [error rate] [bytes per second]");
+            System.exit(2);
+        }
+
+        FixtureServer server = new FixtureServer(
+                new FixtureArchive(Paths.get(args[0])),
+                args.length > 1 ? Integer.parseInt(args[1]) : 8080,
+                args.length > 2 ? Long.parseLong(args[2]) : 0,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0.0,
+                args.length > 4 ? Long.parseLong(args[4]) : 0
+        );
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+        logger.info("Serving at {}", server.baseURL());
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * The replay package records HTTP responses of the scraped websites into a
+ * {@link com.dbarenholz.asvc.replay.FixtureArchive}, and replays them from a local
+ * {@link com.dbarenholz.asvc.replay.FixtureServer}, so scrapers can be tested and load-tested without the network.
+ *
+ * To record, run asvc with {@code -Dasvc.record=<archive>}. To replay, start a fixture server on the archive, and run
+ * asvc with the base URLs pointing at it, e.g. {@code -Dasvc.jisho=http://localhost:8080/jisho.org/}.
+ *
+ * @author dbarenholz
+ * @version 1.0
+ * @since 13
+ *
+ * @see com.dbarenholz.asvc.Settings
+ */
+package com.dbarenholz.asvc.replay;
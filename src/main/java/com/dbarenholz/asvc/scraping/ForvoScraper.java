@@ -2,21 +2,17 @@ package com.dbarenholz.asvc.scraping;
 
 import com.dbarenholz.asvc.Settings;
 import com.dbarenholz.asvc.cache.Cache;
-import com.dbarenholz.asvc.exceptions.DownloadException;
-import com.dbarenholz.asvc.exceptions.ForvoDownloadException;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.List;
-import java.util.StringTokenizer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ForvoScraper.
@@ -25,9 +21,12 @@ import java.util.StringTokenizer;
  */
 public class ForvoScraper extends Cache {
 
+    private static final Logger logger = LogManager.getLogger(); // logger
+
     private static final ForvoScraper fInstance = new ForvoScraper();
 
     private ForvoScraper() {
+        super(ID, Settings.forvo);
     }
 
     public static ForvoScraper getForvo() {
@@ -37,63 +36,86 @@ public class ForvoScraper extends Cache {
     private static final String ID = "forvo";
     // TODO: Convert to local when done
     private static String PAGE_IDENTIFIER = ID + " audio page of ";
-    private static String AUDIO_URL = "https://audio00.forvo.com/audios/mp3/";
+
+    // metadata entry of an audio page holding the MP3 found on it, or an empty string if there is none
+    private static final String MP3_METADATA = "mp3";
 
     /**
      * Makes a connection with the Forvo servers to download an audiofile.
      *
      * @param eParamDecoded decoded name to download
-     * @param fileName      filename to write to
-     * @throws ForvoDownloadException when something goes wrong.
+     * @param fileName      cache key to store the MP3 under
+     * @return The name of the downloaded MP3 file, or a transient error if the download failed.
      */
-    private void downloadAudio(String eParamDecoded, String fileName) throws ForvoDownloadException {
+    private ScrapeOutcome<String> downloadAudio(String eParamDecoded, String fileName) {
         // https://audio00.forvo.com/audios/mp3/b/6/b6_8998474_76_434248_171524.mp3
-        String forvoMP3URL = AUDIO_URL + eParamDecoded;
-        File file = new File(Settings.cachePath + fileName);
+        String forvoMP3URL = Settings.forvoAudio + eParamDecoded;
 
-        // Use default Java code for URL connection to save MP3
+        // Use default Java code for URL connection to save MP3, within the deadline of the lookup
+        long start = System.nanoTime();
         try {
+            int timeout = requestTimeoutMillis(forvoMP3URL);
             URLConnection conn = new URL(forvoMP3URL).openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            byte[] mp3;
             try (InputStream is = conn.getInputStream()) {
-                try (OutputStream outstream = new FileOutputStream(file)) {
-                    byte[] buffer = new byte[4096];
-                    int len;
-                    while ((len = is.read(buffer)) > 0) {
-                        outstream.write(buffer, 0, len);
-                    }
-                }
+                mp3 = is.readAllBytes();
             }
-        }catch (IOException e) {
-            throw new ForvoDownloadException(
-                    "Could not download MP3 file",
-                    eParamDecoded,
-                    fileName,
-                    e
-            );
+            recordDownload(start, mp3.length);
+            record(forvoMP3URL, 200, conn.getContentType(), mp3);
+            store.put(fileName, mp3);
+            return ScrapeOutcome.found(fileName);
+        } catch (IOException e) {
+            return ScrapeOutcome.transientError("Could not download MP3 file " + eParamDecoded + ": " + e.getMessage());
         }
-
-        updateCache(file);
     }
 
     /**
      * Retrieves an MP3 for a given word.
      *
      * @param wordString word to find MP3 for
-     * @return name of downloaded MP3 file
-     * @throws ForvoDownloadException if download fails.
+     * @return name of downloaded MP3 file, or why there is none
      */
-    public String retrieveAudio(String wordString) throws ForvoDownloadException {
-        String finalFileName = "";
-        String audioPageIdentifier = PAGE_IDENTIFIER + wordString;
+    public ScrapeOutcome<String> retrieveAudio(String wordString) {
+        String audioPageIdentifier = PAGE_IDENTIFIER + keyOf(wordString);
 
         // retrieve document
-        Document pageDoc;
+        return retrieve(audioPageIdentifier, wordString).then(pageDoc -> {
+            ScrapeOutcome<String> audio = findAudio(pageDoc, wordString);
+            if (audio.isFound() || audio.getKind() == ScrapeOutcome.Kind.NOT_FOUND) {
+                remember(audioPageIdentifier, audio.orElse(""));
+            }
+            return audio;
+        });
+    }
+
+    /**
+     * Helper method for {@link #retrieveAudio(String)}; records on an audio page which MP3 was found on it, so that
+     * {@link #isCached(String)} can tell whether the MP3 is cached too without parsing the page.
+     *
+     * @param audioPageIdentifier page identifier of the audio page
+     * @param fileName            name of the MP3 file found on the page, or an empty string if there is none
+     */
+    private void remember(String audioPageIdentifier, String fileName) {
         try {
-            pageDoc = retrieve(audioPageIdentifier, wordString);
-        } catch (DownloadException e) {
-            throw new ForvoDownloadException("Cannot retrieve data for word: " + wordString);
+            if (!fileName.equals(store.metadata(audioPageIdentifier).get(MP3_METADATA))) {
+                store.annotate(audioPageIdentifier, Collections.singletonMap(MP3_METADATA, fileName));
+            }
+        } catch (IOException e) {
+            logger.debug("Cannot record MP3 of {}: {}", audioPageIdentifier, e.getMessage());
         }
+    }
 
+    /**
+     * Helper method for {@link #retrieveAudio(String)}; finds the MP3 of a native speaker on a word page, and downloads
+     * it unless it is cached already.
+     *
+     * @param pageDoc    word page
+     * @param wordString word to find MP3 for
+     * @return name of downloaded MP3 file, or not found if nobody pronounced the word
+     */
+    private ScrapeOutcome<String> findAudio(Document pageDoc, String wordString) {
         // select correct elements
         for (Element playElement : pageDoc.getElementsByClass("play")) {
             String onClickText = playElement.attr("onclick");
@@ -125,60 +147,62 @@ public class ForvoScraper extends Cache {
                     String eParamDecoded = new String(Base64.getDecoder().decode(eParam));
 
                     if (eParamDecoded.contains("_76_")) {
-                        finalFileName = "forvo" + aParam + ".mp3";
-                        // download MP3 file
-                        downloadAudio(eParamDecoded, finalFileName);
-                        break;
+                        String finalFileName = "forvo" + aParam + ".mp3";
+                        // download MP3 file, unless it is cached already
+                        if (notYetDownloaded(finalFileName)) {
+                            return downloadAudio(eParamDecoded, finalFileName);
+                        }
+                        return ScrapeOutcome.found(finalFileName);
                     }
                 }
             }
         }
 
-        return finalFileName;
+        return ScrapeOutcome.notFound("No audio for " + wordString);
     }
 
     /**
-     * Retrieves a page from cache if it exists, or otherwise downloads it,
-     * with {@code pageIdentifier} in its name, for some word {@code wordString}.
+     * Checks if the audio page of a word and its MP3 are cached, so looking up the word does not need the network.
      *
-     * @param pageIdentifier page for which a Document should be retrieved.
-     * @param wordString     the word for which a Document should be retrieved.
-     * @return Document from cache.
-     * @throws DownloadException if something goes wrong
+     * @param wordString word to check
+     * @return {@code true} if the audio page of {@code wordString} is cached, and so is the MP3 found on it (if any);
+     * {@code false} otherwise, including when the page has not been looked up since it was cached.
      */
-    @Override
-    public Document retrieve(String pageIdentifier, String wordString) throws DownloadException {
-        if (notYetDownloaded(pageIdentifier)) {
-            Connection.Response response;
-
-            try {
-                response = getHTTPResponse(Settings.forvo + "word/" + wordString + "/#ja");
-            } catch (IOException e) {
-                throw new DownloadException(
-                        "Cannot retrieve response from website.",
-                        pageIdentifier,
-                        e);
-            }
-
-            checkResponse(response, pageIdentifier);
+    public boolean isCached(String wordString) {
+        String audioPageIdentifier = PAGE_IDENTIFIER + keyOf(wordString);
+        if (notYetDownloaded(audioPageIdentifier)) {
+            return false;
         }
-
-        Document pageDoc;
-
         try {
-            pageDoc = Jsoup.parse(
-                    getPage(pageIdentifier),
-                    String.valueOf(StandardCharsets.UTF_8),
-                    Settings.forvo
-            );
+            String fileName = store.metadata(audioPageIdentifier).get(MP3_METADATA);
+            return fileName != null && (fileName.isEmpty() || !notYetDownloaded(fileName));
         } catch (IOException e) {
-            throw new DownloadException(
-                    "Cannot parse response from website.",
-                    pageIdentifier,
-                    e
-            );
+            return false;
         }
+    }
 
-        return pageDoc;
+    /**
+     * Retrieves MP3s for many words. Cached words resolve without waiting for the network, others as soon
+     * as they are downloaded.
+     *
+     * @param wordStrings words to find MP3s for
+     * @return A future name of the downloaded MP3 file, or why there is none, per word.
+     * @see #retrieveAudio(String)
+     */
+    public Map<String, CompletableFuture<ScrapeOutcome<String>>> retrieveAudios(Collection<String> wordStrings) {
+        return batch(wordStrings, this::isCached, this::retrieveAudio);
+    }
+
+    /**
+     * Retrieves a page from cache if it exists, or otherwise downloads it,
+     * with {@code pageIdentifier} in its name, for some word {@code wordString}.
+     *
+     * @param pageIdentifier page for which a Document should be retrieved.
+     * @param wordString     the word for which a Document should be retrieved.
+     * @return Document from cache, or why it cannot be retrieved.
+     */
+    @Override
+    public ScrapeOutcome<Document> retrieve(String pageIdentifier, String wordString) {
+        return fetch(pageIdentifier, Settings.forvo + "word/" + wordString + "/#ja", Settings.forvo);
     }
 }
@@ -2,16 +2,12 @@ package com.dbarenholz.asvc.scraping;
 
 import com.dbarenholz.asvc.Settings;
 import com.dbarenholz.asvc.cache.Cache;
-import com.dbarenholz.asvc.exceptions.DownloadException;
-import com.dbarenholz.asvc.exceptions.JishoDownloadException;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 
-import java.io.IOException;
-import java.util.Objects;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Jisho scraper.
@@ -22,6 +18,7 @@ public class JishoScraper extends Cache {
     private static final JishoScraper jInstance = new JishoScraper();
 
     private JishoScraper() {
+        super(ID, Settings.jisho);
     }
 
     public static JishoScraper getJisho() {
@@ -32,44 +29,103 @@ public class JishoScraper extends Cache {
     private static final String ID = "jisho";
     private static String PAGE_IDENTIFIER = ID + " vocabulary page of ";
 
+    /**
+     * Everything scraped from the vocabulary page of a word, so that a single lookup of the page serves all of it.
+     */
+    public static class Entry {
+        private final ScrapeOutcome<String> meaning;
+        private final ScrapeOutcome<String> reading;
+
+        private Entry(ScrapeOutcome<String> meaning, ScrapeOutcome<String> reading) {
+            this.meaning = meaning;
+            this.reading = reading;
+        }
+
+        /**
+         * @return meaning of the word, or why it is not on the page
+         */
+        public ScrapeOutcome<String> getMeaning() {
+            return meaning;
+        }
+
+        /**
+         * @return reading of the word, or why it is not on the page
+         */
+        public ScrapeOutcome<String> getReading() {
+            return reading;
+        }
+    }
+
     /**
      * Retrieves the meaning of a word.
      *
      * @param wordString word to retrieve meaning for.
-     * @return meaning of said word
-     * @throws JishoDownloadException if something goes wrong when downloading
+     * @return meaning of said word, or why it cannot be retrieved
      */
-    public String retrieveMeaning(String wordString) throws JishoDownloadException {
-        String meaningPageIdentifier = PAGE_IDENTIFIER + wordString;
-        Document pageDoc;
-
-        try {
-            pageDoc = retrieve(meaningPageIdentifier, wordString);
-        } catch (DownloadException e) {
-            throw new JishoDownloadException("Cannot retrieve data for word: " + wordString);
-        }
+    public ScrapeOutcome<String> retrieveMeaning(String wordString) {
+        String meaningPageIdentifier = PAGE_IDENTIFIER + keyOf(wordString);
 
-        return Objects.requireNonNull(pageDoc).select("span.meaning-meaning").first().text();
+        return retrieve(meaningPageIdentifier, wordString)
+                .then(pageDoc -> first(pageDoc, "span.meaning-meaning", meaningPageIdentifier))
+                .map(Element::text);
     }
 
     /**
      * Retrieves the reading of a word.
      *
      * @param wordString word to retrieve reading for
-     * @return reading of said word
-     * @throws JishoDownloadException if something goes wrong when downloading
+     * @return reading of said word, or why it cannot be retrieved
      */
-    public String retrieveReading(String wordString) throws JishoDownloadException {
-        String readingPageIdentifier = PAGE_IDENTIFIER + wordString;
-        Document pageDoc;
-
-        try {
-            pageDoc = retrieve(readingPageIdentifier, wordString);
-        } catch (DownloadException e) {
-            throw new JishoDownloadException("Cannot retrieve data for word: " + wordString);
-        }
+    public ScrapeOutcome<String> retrieveReading(String wordString) {
+        String readingPageIdentifier = PAGE_IDENTIFIER + keyOf(wordString);
+
+        return retrieve(readingPageIdentifier, wordString)
+                .then(pageDoc -> first(pageDoc, "span.furigana", readingPageIdentifier))
+                .map(Element::text);
+    }
+
+    /**
+     * Retrieves the meaning and the reading of a word, from a single lookup of its vocabulary page.
+     *
+     * @param wordString word to retrieve meaning and reading for
+     * @return meaning and reading of said word, or why the page cannot be retrieved; a permanent error if the page
+     * has neither, so that the circuit breaker sees a page whose markup changed
+     */
+    public ScrapeOutcome<Entry> retrieveEntry(String wordString) {
+        String entryPageIdentifier = PAGE_IDENTIFIER + keyOf(wordString);
+
+        return retrieve(entryPageIdentifier, wordString).then(pageDoc -> {
+            ScrapeOutcome<String> meaning =
+                    first(pageDoc, "span.meaning-meaning", entryPageIdentifier).map(Element::text);
+            ScrapeOutcome<String> reading =
+                    first(pageDoc, "span.furigana", entryPageIdentifier).map(Element::text);
+            if (meaning.isError() && reading.isError()) {
+                return ScrapeOutcome.permanentError(meaning.getReason() + "; " + reading.getReason());
+            }
+            return ScrapeOutcome.found(new Entry(meaning, reading));
+        });
+    }
 
-        return Objects.requireNonNull(pageDoc).select("span.furigana").first().text();
+    /**
+     * Checks if the vocabulary page of a word is cached, so looking up the word does not need the network.
+     *
+     * @param wordString word to check
+     * @return {@code true} if the vocabulary page of {@code wordString} is cached, {@code false} otherwise.
+     */
+    public boolean isCached(String wordString) {
+        return !notYetDownloaded(PAGE_IDENTIFIER + keyOf(wordString));
+    }
+
+    /**
+     * Retrieves the meanings and readings of many words. Cached words resolve without waiting for the network, others
+     * as soon as they are downloaded.
+     *
+     * @param wordStrings words to retrieve meanings and readings for
+     * @return A future meaning and reading, or why the page cannot be retrieved, per word.
+     * @see #retrieveEntry(String)
+     */
+    public Map<String, CompletableFuture<ScrapeOutcome<Entry>>> retrieveEntries(Collection<String> wordStrings) {
+        return batch(wordStrings, this::isCached, this::retrieveEntry);
     }
 
     /**
@@ -78,47 +134,10 @@ public class JishoScraper extends Cache {
      *
      * @param pageIdentifier page for which a Document should be retrieved.
      * @param wordString     the word for which a Document should be retrieved.
-     * @return Document from cache.
-     * @throws DownloadException if something goes wrong
+     * @return Document from cache, or why it cannot be retrieved.
      */
     @Override
-    public Document retrieve(String pageIdentifier, String wordString) throws DownloadException {
-        // If data has not yet been downloaded
-        if (notYetDownloaded(pageIdentifier)) {
-
-            // Retrieve a response based on which site
-            Connection.Response response;
-
-            try {
-                response = getHTTPResponse(Settings.jisho + "word/" + wordString);
-            } catch (IOException e) {
-                throw new DownloadException(
-                        "Cannot retrieve response from website.",
-                        pageIdentifier,
-                        e
-                );
-            }
-
-            checkResponse(response, pageIdentifier);
-
-        }
-
-        Document pageDoc;
-
-        try {
-            pageDoc = Jsoup.parse(
-                    getPage(pageIdentifier),
-                    String.valueOf(UTF_8),
-                    Settings.jisho
-            );
-        } catch (IOException e) {
-            throw new DownloadException(
-                    "Cannot parse response from website.",
-                    pageIdentifier,
-                    e
-            );
-        }
-
-        return pageDoc;
+    public ScrapeOutcome<Document> retrieve(String pageIdentifier, String wordString) {
+        return fetch(pageIdentifier, Settings.jisho + "word/" + wordString, Settings.jisho);
     }
-}
\ No newline at end of file
+}
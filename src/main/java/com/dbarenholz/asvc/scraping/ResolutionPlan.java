@@ -0,0 +1,157 @@
+package com.dbarenholz.asvc.scraping;
+
+import com.dbarenholz.asvc.vocabitem.VocabField;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolution plan: which {@link VocabField}s need to be filled, and therefore which sources need to be scraped.
+ *
+ * A field is only scraped if it is needed (e.g. it is a column of the chosen export format) and a source was chosen
+ * for it in step 3. Kanji and, unless Jisho is chosen for it, kana come from kuromoji and never need scraping. Accent
+ * graphs are generated from the kuromoji dictionary, without scraping, whenever they are needed.
+ */
+public class ResolutionPlan {
+    private final Set<VocabField> fields;
+    private final boolean kanaFromJisho;
+    private final boolean sentenceFromTatoeba;
+    private final boolean audioFromForvo;
+
+    /**
+     * Creates a resolution plan.
+     *
+     * @param fields              fields that are needed
+     * @param kanaFromJisho       {@code true} to replace the kuromoji kana by the reading from Jisho
+     * @param sentenceFromTatoeba {@code true} to retrieve example sentences from Tatoeba
+     * @param audioFromForvo      {@code true} to download audio from Forvo
+     */
+    public ResolutionPlan(Set<VocabField> fields, boolean kanaFromJisho, boolean sentenceFromTatoeba,
+                          boolean audioFromForvo) {
+        this.fields = fields.isEmpty() ? EnumSet.noneOf(VocabField.class) : EnumSet.copyOf(fields);
+        this.kanaFromJisho = kanaFromJisho;
+        this.sentenceFromTatoeba = sentenceFromTatoeba;
+        this.audioFromForvo = audioFromForvo;
+    }
+
+    /**
+     * @param more additional fields that are needed
+     * @return A plan with the same sources, needing the fields of this plan as well as {@code more}.
+     */
+    public ResolutionPlan with(Set<VocabField> more) {
+        Set<VocabField> all = EnumSet.copyOf(fields);
+        all.addAll(more);
+        return new ResolutionPlan(all, kanaFromJisho, sentenceFromTatoeba, audioFromForvo);
+    }
+
+    /**
+     * @return {@code true} if this plan needs every field {@code other} needs, from the same sources
+     */
+    public boolean covers(ResolutionPlan other) {
+        return fields.containsAll(other.fields)
+                && kanaFromJisho == other.kanaFromJisho
+                && sentenceFromTatoeba == other.sentenceFromTatoeba
+                && audioFromForvo == other.audioFromForvo;
+    }
+
+    /**
+     * @return {@code true} if meanings need to be retrieved from Jisho
+     */
+    public boolean needsMeaning() {
+        return fields.contains(VocabField.TRANSLATION);
+    }
+
+    /**
+     * @return {@code true} if readings need to be retrieved from Jisho
+     */
+    public boolean needsReading() {
+        return kanaFromJisho && fields.contains(VocabField.KANA);
+    }
+
+    /**
+     * @return {@code true} if example sentences need to be retrieved from Tatoeba
+     */
+    public boolean needsSentence() {
+        return sentenceFromTatoeba
+                && (fields.contains(VocabField.SENTENCE_JP) || fields.contains(VocabField.SENTENCE_EN));
+    }
+
+    /**
+     * @return {@code true} if audio needs to be downloaded from Forvo
+     */
+    public boolean needsAudio() {
+        return audioFromForvo && fields.contains(VocabField.AUDIO);
+    }
+
+    /**
+     * @return {@code true} if accent graphs need to be generated
+     */
+    public boolean needsAccent() {
+        return fields.contains(VocabField.ACCENT);
+    }
+
+    /**
+     * Writes this plan, for {@link RunJournal}.
+     *
+     * @param out stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(fields.size());
+        for (VocabField field : fields) {
+            out.writeByte(field.ordinal());
+        }
+        out.writeBoolean(kanaFromJisho);
+        out.writeBoolean(sentenceFromTatoeba);
+        out.writeBoolean(audioFromForvo);
+    }
+
+    /**
+     * Reads a plan written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in stream to read from
+     * @return The plan read.
+     * @throws IOException if an I/O error occurs, or the stream does not hold a plan
+     */
+    static ResolutionPlan readFrom(DataInputStream in) throws IOException {
+        Set<VocabField> fields = EnumSet.noneOf(VocabField.class);
+        VocabField[] all = VocabField.values();
+        for (int count = in.readByte(); count > 0; count--) {
+            int ordinal = in.readByte();
+            if (ordinal < 0 || ordinal >= all.length) {
+                throw new IOException("Unknown field " + ordinal);
+            }
+            fields.add(all[ordinal]);
+        }
+        return new ResolutionPlan(fields, in.readBoolean(), in.readBoolean(), in.readBoolean());
+    }
+
+    /**
+     * @return names of the sources this plan scrapes, for logging (e.g. {@code [jisho meaning, tatoeba]})
+     */
+    @Override
+    public String toString() {
+        List<String> sources = new ArrayList<>();
+        if (needsMeaning()) {
+            sources.add("jisho meaning");
+        }
+        if (needsReading()) {
+            sources.add("jisho reading");
+        }
+        if (needsSentence()) {
+            sources.add("tatoeba");
+        }
+        if (needsAudio()) {
+            sources.add("forvo");
+        }
+        if (needsAccent()) {
+            sources.add("kuromoji accent");
+        }
+        return sources.toString();
+    }
+}
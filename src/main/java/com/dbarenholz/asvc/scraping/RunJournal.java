@@ -0,0 +1,390 @@
+package com.dbarenholz.asvc.scraping;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal of the current scrape run, so that a run interrupted by a crash or by closing the application can be resumed.
+ *
+ * A run is started with the words to scrape and the {@link ResolutionPlan}. Every lookup of a word from a source that
+ * completes (found, or not found) is appended to the journal and flushed right away. Resuming a run scrapes the same
+ * words with the same plan again, answering completed lookups from the journal instead of from the source; lookups that
+ * failed are not journaled, and are tried again. Once the run is finished, e.g. exported, the journal is deleted.
+ *
+ * Journal format: a header ({@link #MAGIC}, {@link #VERSION}), followed by records that each start with their type:
+ * {@link #PLAN}, {@link #WORD} or {@link #DONE}. A later plan replaces an earlier one. A truncated trailing record,
+ * e.g. after a crash, is dropped, as is everything from a record of an unknown type on.
+ *
+ * The journal is written in order on a thread of its own, so callers (e.g. the FX thread) never wait for the disk;
+ * which lookups completed is known in memory right away.
+ */
+public class RunJournal implements Closeable {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private static final RunJournal rjInstance = new RunJournal(Paths.get(Settings.journalPath));
+
+    private RunJournal(Path path) {
+        this.path = path;
+    }
+
+    public static RunJournal getJournal() {
+        return rjInstance;
+    }
+
+    private static final int MAGIC = 0x4153564A; // "ASVJ"
+    private static final byte VERSION = 1;
+
+    // record types
+    private static final byte PLAN = 1; // plan of the run
+    private static final byte WORD = 2; // kanji and kana of a word of the run
+    private static final byte DONE = 3; // source, kanji, found or not, and the value found
+
+    private final Path path;
+    private final Map<String, ScrapeOutcome<String>> completed = new HashMap<>(); // guarded by this
+    private boolean journaling = false;  // guarded by this; true while the current run is journaled
+    private DataOutputStream log = null; // only used by the writer
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "asvc-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * An interrupted run, as read back from the journal.
+     */
+    public static class Run {
+        private final ResolutionPlan plan;
+        private final List<VocabItem> words;
+        private final int completedLookups;
+
+        private Run(ResolutionPlan plan, List<VocabItem> words, int completedLookups) {
+            this.plan = plan;
+            this.words = Collections.unmodifiableList(words);
+            this.completedLookups = completedLookups;
+        }
+
+        /**
+         * @return the latest plan of the run
+         */
+        public ResolutionPlan getPlan() {
+            return plan;
+        }
+
+        /**
+         * @return words of the run, in the order they were scraped in
+         */
+        public List<VocabItem> getWords() {
+            return words;
+        }
+
+        /**
+         * @return number of lookups that completed before the run was interrupted
+         */
+        public int getCompletedLookups() {
+            return completedLookups;
+        }
+    }
+
+    /**
+     * Reads the journal of an interrupted run, if there is one, and opens it for appending, so the run can be resumed.
+     * Either resume the run, i.e. {@link ScrapeEngine#scrape(Collection, ResolutionPlan) scrape} its words with its
+     * plan, or {@link #finish()} it. Waits for the journal to be read, so should not be called on the FX thread.
+     *
+     * @return The interrupted run, or {@code null} if there is none, or a new run was started in the meantime.
+     * @throws IOException if the journal cannot be read
+     */
+    public Run load() throws IOException {
+        synchronized (this) {
+            journaling = false;
+            completed.clear();
+        }
+
+        Map<String, ScrapeOutcome<String>> found = new HashMap<>();
+        Run run;
+        try {
+            run = writer.submit(() -> read(found)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading run journal " + path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot read run journal " + path, e.getCause());
+        }
+
+        synchronized (this) {
+            if (run == null || journaling) {
+                return null;
+            }
+            journaling = true;
+            completed.putAll(found);
+        }
+        logger.info("Found interrupted run of {} words, {} lookups completed", run.getWords().size(), found.size());
+        return run;
+    }
+
+    /**
+     * Starts a new run, replacing the journal of any earlier run. A journal that cannot be written is logged; the run
+     * then cannot be resumed.
+     *
+     * @param plan  plan of the run
+     * @param words words of the run
+     */
+    public synchronized void start(ResolutionPlan plan, Collection<VocabItem> words) {
+        completed.clear();
+        journaling = true;
+
+        List<VocabItem> run = new ArrayList<>(words);
+        writer.execute(() -> {
+            try {
+                closeLog();
+                Files.createDirectories(path.getParent());
+                log = open(false);
+                log.writeInt(MAGIC);
+                log.writeByte(VERSION);
+                writePlan(plan);
+                for (VocabItem word : run) {
+                    log.writeByte(WORD);
+                    log.writeUTF(word.getKanji());
+                    log.writeUTF(word.getKana());
+                }
+                log.flush();
+            } catch (IOException e) {
+                logger.warn("Cannot write run journal {}: {}. This run cannot be resumed.", path, e.getMessage());
+                closeQuietly();
+            }
+        });
+    }
+
+    /**
+     * Changes the plan of the current run, e.g. when an export format needs more fields.
+     *
+     * @param plan new plan of the run
+     */
+    public synchronized void plan(ResolutionPlan plan) {
+        if (!journaling) {
+            return;
+        }
+
+        writer.execute(() -> {
+            if (log == null) {
+                return;
+            }
+            try {
+                writePlan(plan);
+                log.flush();
+            } catch (IOException e) {
+                logger.warn("Cannot write plan to run journal {}: {}", path, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Journals a completed lookup. Errors are not journaled, so a resumed run tries them again.
+     *
+     * @param source  source looked up (e.g. {@code jisho})
+     * @param kanji   word looked up
+     * @param outcome outcome of the lookup
+     */
+    public synchronized void completed(String source, String kanji, ScrapeOutcome<String> outcome) {
+        if (!journaling || outcome.isError()) {
+            return;
+        }
+
+        completed.put(keyOf(source, kanji), outcome);
+        writer.execute(() -> {
+            if (log == null) {
+                return;
+            }
+            try {
+                log.writeByte(DONE);
+                log.writeUTF(source);
+                log.writeUTF(kanji);
+                log.writeBoolean(outcome.isFound());
+                log.writeUTF(outcome.isFound() ? outcome.getValue() : outcome.getReason());
+                log.flush();
+            } catch (IOException e) {
+                logger.warn("Cannot write {} to run journal {}: {}", kanji, path, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @param source source to look up (e.g. {@code jisho})
+     * @param kanji  word to look up
+     * @return The outcome of the lookup, if it completed in this run, or {@code null} otherwise.
+     */
+    public synchronized ScrapeOutcome<String> completedLookup(String source, String kanji) {
+        return completed.get(keyOf(source, kanji));
+    }
+
+    /**
+     * Finishes the current run, deleting its journal.
+     */
+    public synchronized void finish() {
+        completed.clear();
+        journaling = false;
+        writer.execute(this::delete);
+    }
+
+    /**
+     * Writes out everything journaled so far, and closes the journal, keeping it on disk, so that the run can be
+     * resumed on the next start. The journal cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            journaling = false;
+        }
+        writer.execute(this::closeQuietly);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Closing before the run journal {} is written", path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // === writer === //
+
+    /**
+     * Helper method for {@link #load()}, run by the writer; reads the journal, and opens it for appending.
+     *
+     * @param found receives the lookups that completed in the run
+     * @return The interrupted run, or {@code null} if there is none.
+     * @throws IOException if the journal cannot be read
+     */
+    private Run read(Map<String, ScrapeOutcome<String>> found) throws IOException {
+        closeLog();
+
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(buffer);
+
+        ResolutionPlan plan = null;
+        Map<String, VocabItem> words = new LinkedHashMap<>();
+        long validLength = 0;
+        boolean unknownRecord = false;
+
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                logger.info("Discarding unreadable run journal {}", path);
+                delete();
+                return null;
+            }
+            validLength = bytes.length - buffer.available();
+
+            // replay records until the end of the journal
+            while (buffer.available() > 0) {
+                byte type = in.readByte();
+                if (type == PLAN) {
+                    plan = ResolutionPlan.readFrom(in);
+                } else if (type == WORD) {
+                    String kanji = in.readUTF();
+                    String kana = in.readUTF();
+                    words.putIfAbsent(kanji + '\u0000' + kana, new VocabItem(kanji, kana));
+                } else if (type == DONE) {
+                    String source = in.readUTF();
+                    String kanji = in.readUTF();
+                    boolean isFound = in.readBoolean();
+                    String value = in.readUTF();
+                    found.put(keyOf(source, kanji),
+                            isFound ? ScrapeOutcome.found(value) : ScrapeOutcome.notFound(value));
+                } else {
+                    // not a truncated record, but a corrupt journal (or one of a newer version): say so
+                    logger.warn("Unknown record type {} in run journal {}, dropping it and everything after it",
+                            type, path);
+                    unknownRecord = true;
+                    break;
+                }
+                validLength = bytes.length - buffer.available();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // incomplete trailing record: keep everything before it
+        }
+
+        if (plan == null || words.isEmpty()) {
+            delete();
+            return null;
+        }
+
+        if (validLength < bytes.length) {
+            if (!unknownRecord) {
+                logger.warn("Dropping truncated record at the end of {}", path);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(validLength);
+            }
+        }
+
+        log = open(true);
+        return new Run(plan, new ArrayList<>(words.values()), found.size());
+    }
+
+    // deletes the journal; run by the writer
+    private void delete() {
+        closeQuietly();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Cannot delete run journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    // closes the journal, keeping it on disk; run by the writer
+    private void closeLog() throws IOException {
+        if (log != null) {
+            DataOutputStream closing = log;
+            log = null;
+            closing.close();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeLog();
+        } catch (IOException e) {
+            logger.warn("Cannot close run journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    // === (de)serialisation === //
+
+    private DataOutputStream open(boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), append)));
+    }
+
+    private void writePlan(ResolutionPlan plan) throws IOException {
+        log.writeByte(PLAN);
+        plan.writeTo(log);
+    }
+
+    private static String keyOf(String source, String kanji) {
+        return source + '\u0000' + kanji;
+    }
+}
@@ -0,0 +1,383 @@
+package com.dbarenholz.asvc.scraping;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.cache.Deadline;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.parsing.AccentEngine;
+import com.dbarenholz.asvc.parsing.Transliterator;
+import com.dbarenholz.asvc.vocabitem.VocabField;
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+import com.dbarenholz.asvc.vocabitem.VocabStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Scrape engine.
+ *
+ * Combines the batch lookups of all scrapers into complete {@link VocabItem}s. Every word gets its own future, so
+ * results can be consumed (e.g. shown in a table, or exported) as they arrive, rather than after the slowest word.
+ * A failed lookup never fails the whole item; the corresponding field is simply left empty. Lookups that failed with a
+ * {@link ScrapeOutcome.Kind#TRANSIENT_ERROR transient error} are tried again by the next scrape that needs them.
+ *
+ * Only the sources needed by the {@link ResolutionPlan} are scraped, and every source is looked up at most once per
+ * word: scraping again with a plan that needs more fields (e.g. after choosing an export format with audio) only
+ * schedules the lookups that were not needed before.
+ * Accent graphs are not scraped, but generated locally by an {@link AccentEngine}, if the engine has one. Romaji
+ * are transliterated from the final kana of every item. Items record whether their kana is the Jisho reading, so that
+ * a stored item with only the kuromoji kana is scraped again by a plan that needs the reading.
+ *
+ * Every call to {@link #scrape(Collection, ResolutionPlan)} has a deadline of {@link Settings#batchDeadline}: lookups
+ * still running by then are abandoned, and their items completed with the fields that did arrive (partial items).
+ *
+ * Scraped items are kept in the {@link VocabStore}, so words scraped in an earlier run are not looked up again. A word
+ * that is scraped again is merged into its stored item: fields the user edited are kept as edited. Scraped items are
+ * never the stored instances, so callers (e.g. the review table) can change them without changing the store.
+ * Completed lookups are also written to a {@link RunJournal}, if given, so that an interrupted run can be resumed
+ * without looking up anything that completed before.
+ */
+public class ScrapeEngine {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    // kana source of items whose kana is the Jisho reading
+    private static final String JISHO = "jisho";
+
+    private final JishoScraper jisho = JishoScraper.getJisho();
+    private final TatoebaScraper tatoeba = TatoebaScraper.getTatoeba();
+    private final ForvoScraper forvo = ForvoScraper.getForvo();
+    private final VocabStore store = VocabStore.getVocabStore();
+    private final Transliterator transliterator = Transliterator.getTransliterator();
+    private final RunJournal journal; // null if lookups are not journaled
+    private final AccentEngine accentEngine; // null if accent graphs are not generated
+
+    // items completed by the deadline before all their fields arrived
+    private static final LongAdder partial = Metrics.counter("scrape.partial");
+
+    // lookups scheduled by any engine that have not completed yet; background work (e.g. WarmUp) waits for these
+    private static final AtomicInteger running = new AtomicInteger();
+
+    // lookups scheduled so far, per source; a source is only looked up for a word the first time it is needed
+    private final Map<String, CompletableFuture<ScrapeOutcome<JishoScraper.Entry>>> entries = new HashMap<>();
+    private final Map<String, CompletableFuture<ScrapeOutcome<String>>> meanings = new HashMap<>();
+    private final Map<String, CompletableFuture<ScrapeOutcome<String>>> readings = new HashMap<>();
+    private final Map<String, CompletableFuture<ScrapeOutcome<String>>> sentences = new HashMap<>();
+    private final Map<String, CompletableFuture<ScrapeOutcome<String>>> audios = new HashMap<>();
+    private final Map<String, CompletableFuture<ScrapeOutcome<String>>> accents = new HashMap<>();
+
+    /**
+     * Creates a scrape engine that does not journal its lookups.
+     */
+    public ScrapeEngine() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a scrape engine.
+     *
+     * @param journal      journal of the current run, to write completed lookups to and to resume from; {@code null}
+     *                     to not journal lookups
+     * @param accentEngine engine generating accent graphs; {@code null} to leave accents empty
+     */
+    public ScrapeEngine(RunJournal journal, AccentEngine accentEngine) {
+        this.journal = journal;
+        this.accentEngine = accentEngine;
+    }
+
+    /**
+     * @return {@code true} if any engine has lookups running, e.g. because the user is scraping a song
+     */
+    public static boolean isBusy() {
+        return running.get() > 0;
+    }
+
+    /**
+     * Scrapes the information needed by {@code plan} for a collection of words.
+     *
+     * @param words words, as parsed by kuromoji, to scrape information for
+     * @param plan  fields to scrape, and sources to scrape them from
+     * @return A future, scraped, item per word, in the iteration order of {@code words}.
+     */
+    public synchronized Map<VocabItem, CompletableFuture<VocabItem>> scrape(Collection<VocabItem> words,
+                                                                            ResolutionPlan plan) {
+        // words scraped before are served from the store; only the others are looked up
+        Map<VocabItem, VocabItem> stored = new HashMap<>();
+        for (VocabItem word : words) {
+            VocabItem item = store.get(word.getKanji(), word.getKana());
+            if (item != null && isComplete(item, plan)) {
+                stored.put(word, item);
+            }
+        }
+
+        List<String> wordStrings = words.stream()
+                .filter(word -> !stored.containsKey(word))
+                .map(VocabItem::getKanji)
+                .collect(Collectors.toList());
+
+        // all lookups scheduled here share the deadline of this batch
+        Deadline deadline = Deadline.after(Settings.batchDeadline);
+        deadline.run(() -> {
+            // The reading lives on the same Jisho page as the meaning, so both are taken from one lookup of it.
+            if (plan.needsMeaning()) {
+                lookup(meanings, "jisho", wordStrings, batch -> fromEntries(batch, JishoScraper.Entry::getMeaning));
+            }
+            if (plan.needsReading()) {
+                lookup(readings, "jisho.reading", wordStrings,
+                        batch -> fromEntries(batch, JishoScraper.Entry::getReading));
+            }
+            if (plan.needsSentence()) {
+                lookup(sentences, "tatoeba", wordStrings, tatoeba::retrieveSentences);
+            }
+            if (plan.needsAudio()) {
+                lookup(audios, "forvo", wordStrings, forvo::retrieveAudios);
+            }
+            if (plan.needsAccent() && accentEngine != null) {
+                lookup(accents, "accent", wordStrings, accentEngine::renderAll);
+            }
+        });
+
+        Map<VocabItem, CompletableFuture<VocabItem>> results = new LinkedHashMap<>();
+
+        for (VocabItem word : words) {
+            String kanji = word.getKanji();
+
+            if (stored.containsKey(word)) {
+                results.put(word, CompletableFuture.completedFuture(copyOf(stored.get(word))));
+                continue;
+            }
+
+            // fields this plan does not scrape keep what an earlier run stored for them
+            VocabItem previous = store.get(kanji, word.getKana());
+
+            AtomicBoolean late = new AtomicBoolean(false);
+
+            CompletableFuture<String> meaning = plan.needsMeaning()
+                    ? within(valueOf(meanings.get(kanji), "meaning", kanji), "", deadline, late)
+                    : CompletableFuture.completedFuture(previous == null ? "" : previous.getTranslation());
+            CompletableFuture<String> sentence = plan.needsSentence()
+                    ? within(valueOf(sentences.get(kanji), "sentence", kanji), "", deadline, late)
+                    : CompletableFuture.completedFuture(previous == null ? "" : previous.getSentenceJP());
+            CompletableFuture<String> audio = plan.needsAudio()
+                    ? within(valueOf(audios.get(kanji), "audio", kanji), "", deadline, late)
+                    : CompletableFuture.completedFuture(previous == null ? "" : previous.getAudioLocation());
+            CompletableFuture<String> accent = plan.needsAccent()
+                    ? within(valueOf(accents.get(kanji), "accent", kanji), "", deadline, late)
+                    : CompletableFuture.completedFuture(previous == null ? "" : previous.getAccentLocation());
+
+            CompletableFuture<String> reading = plan.needsReading()
+                    ? within(valueOf(readings.get(kanji), "reading", kanji), "", deadline, late)
+                    : CompletableFuture.completedFuture("");
+
+            CompletableFuture<Void> all = CompletableFuture.allOf(meaning, sentence, audio, accent, reading);
+            results.put(word, all.thenApply(v -> new VocabItem(
+                    kanji,
+                    word.getKana(),
+                    "",
+                    meaning.join(),
+                    sentence.join(),
+                    "",
+                    audio.join(),
+                    accent.join()
+            )).thenApply(item -> {
+                // Jisho does not know every word kuromoji finds; those keep the kana stored before, or else the
+                // kuromoji kana
+                if (!reading.join().isEmpty()) {
+                    item.setKana(reading.join());
+                    item.setKanaSource(JISHO);
+                } else if (previous != null) {
+                    item.setKana(previous.getKana());
+                    item.setKanaSource(previous.getKanaSource());
+                }
+                if (previous != null) {
+                    item.mergeFrom(previous);
+                }
+                if (!item.isEdited(VocabField.ROMAJI)) {
+                    item.setRomaji(transliterator.toRomaji(item.getKana()));
+                }
+                if (late.get()) {
+                    partial.increment();
+                }
+                store.put(kanji, word.getKana(), item.copy());
+                return item;
+            }));
+        }
+
+        logger.debug("Scraping {} words from {}, {} served from the store", results.size(), plan, stored.size());
+
+        return results;
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; schedules the lookups of a source for the words
+     * it has not been looked up for yet, or for which the lookup failed with a transient error. Lookups that completed
+     * earlier in the journaled run are answered from the journal; new ones are journaled once they complete.
+     *
+     * @param scheduled   lookups of the source scheduled so far, to add the new lookups to
+     * @param source      name of the source in the journal
+     * @param wordStrings words to look up
+     * @param batch       batch lookup of the source
+     */
+    private void lookup(
+            Map<String, CompletableFuture<ScrapeOutcome<String>>> scheduled,
+            String source,
+            List<String> wordStrings,
+            Function<Collection<String>, Map<String, CompletableFuture<ScrapeOutcome<String>>>> batch) {
+        List<String> missing = new ArrayList<>();
+        for (String wordString : wordStrings) {
+            if (scheduled.containsKey(wordString) && !isTransientError(scheduled.get(wordString))) {
+                continue;
+            }
+
+            ScrapeOutcome<String> journaled = journal == null ? null : journal.completedLookup(source, wordString);
+            if (journaled != null) {
+                scheduled.put(wordString, CompletableFuture.completedFuture(journaled));
+            } else {
+                missing.add(wordString);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Map<String, CompletableFuture<ScrapeOutcome<String>>> lookups = batch.apply(missing);
+        lookups.values().stream().filter(lookup -> !lookup.isDone()).forEach(lookup -> {
+            running.incrementAndGet();
+            lookup.whenComplete((outcome, e) -> running.decrementAndGet());
+        });
+        if (journal != null) {
+            lookups.forEach((wordString, lookup) ->
+                    lookup.thenAccept(outcome -> journal.completed(source, wordString, outcome)));
+        }
+        scheduled.putAll(lookups);
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; checks if a stored item holds every field a plan
+     * scrapes. The kana only counts as the reading if it came from Jisho, or the user edited it.
+     *
+     * @param item stored item
+     * @param plan plan to check against
+     * @return {@code true} if the item does not need to be scraped again, {@code false} otherwise.
+     */
+    private static boolean isComplete(VocabItem item, ResolutionPlan plan) {
+        return (!plan.needsMeaning() || hasValue(item, VocabField.TRANSLATION))
+                && (!plan.needsSentence() || hasValue(item, VocabField.SENTENCE_JP))
+                && (!plan.needsAudio() || hasValue(item, VocabField.AUDIO))
+                && (!plan.needsAccent() || hasValue(item, VocabField.ACCENT))
+                && (!plan.needsReading() || JISHO.equals(item.getKanaSource()) || item.isEdited(VocabField.KANA));
+    }
+
+    /**
+     * @param item  stored item
+     * @param field field of the item
+     * @return {@code true} if the field has a value, or the user edited it (e.g. cleared it on purpose)
+     */
+    private static boolean hasValue(VocabItem item, VocabField field) {
+        return !field.of(item).isEmpty() || item.isEdited(field);
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; copies a stored item, filling in the romaji of an
+     * item stored before romaji were generated.
+     *
+     * @param item stored item
+     * @return A copy of {@code item}, with the romaji of its kana if it has none.
+     */
+    private VocabItem copyOf(VocabItem item) {
+        VocabItem copy = item.copy();
+        if (!hasValue(copy, VocabField.ROMAJI)) {
+            copy.setRomaji(transliterator.toRomaji(copy.getKana()));
+        }
+        return copy;
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; serves as the batch lookup of a field of the Jisho
+     * vocabulary page. The page of a word is looked up once for all its fields: only words without a lookup of the page
+     * yet, or whose lookup failed with a transient error, are looked up.
+     *
+     * @param wordStrings words to look up
+     * @param field       field of the page
+     * @return A future field, or why it cannot be retrieved, per word.
+     */
+    private Map<String, CompletableFuture<ScrapeOutcome<String>>> fromEntries(
+            Collection<String> wordStrings, Function<JishoScraper.Entry, ScrapeOutcome<String>> field) {
+        List<String> missing = wordStrings.stream()
+                .filter(wordString -> !entries.containsKey(wordString) || isTransientError(entries.get(wordString)))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            entries.putAll(jisho.retrieveEntries(missing));
+        }
+
+        Map<String, CompletableFuture<ScrapeOutcome<String>>> lookups = new LinkedHashMap<>();
+        for (String wordString : wordStrings) {
+            lookups.put(wordString, entries.get(wordString).thenApply(entry -> entry.then(field)));
+        }
+        return lookups;
+    }
+
+    /**
+     * @param lookup scheduled lookup
+     * @return {@code true} if {@code lookup} is done, and failed with a transient error
+     */
+    private static boolean isTransientError(CompletableFuture<? extends ScrapeOutcome<?>> lookup) {
+        return lookup.isDone() && lookup.join().getKind() == ScrapeOutcome.Kind.TRANSIENT_ERROR;
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; completes a lookup with a fallback value once the
+     * deadline has passed.
+     *
+     * @param future   lookup value, never completing exceptionally
+     * @param fallback value to use if the lookup is not done by the deadline
+     * @param deadline deadline of the lookup
+     * @param late     set to {@code true} if the fallback value is used
+     * @return A future that completes by the deadline.
+     */
+    private static CompletableFuture<String> within(CompletableFuture<String> future, String fallback,
+                                                    Deadline deadline, AtomicBoolean late) {
+        // A distinct instance, to tell the fallback apart from a lookup value equal to it. The timeout is cancelled
+        // as soon as the lookup completes, so finished lookups do not keep a timer task until the deadline.
+        String timedOut = new String(fallback);
+        return future.copy()
+                .completeOnTimeout(timedOut, deadline.remainingMillis(), TimeUnit.MILLISECONDS)
+                .thenApply(value -> {
+                    if (value != timedOut) {
+                        return value;
+                    }
+                    late.set(true);
+                    return fallback;
+                });
+    }
+
+    /**
+     * Helper method for {@link #scrape(Collection, ResolutionPlan)}; turns a lookup into its value, or an empty string
+     * if nothing was found or the lookup was not requested.
+     *
+     * @param future lookup result, or {@code null} if the lookup was not requested
+     * @param field  name of the field being looked up, for logging
+     * @param kanji  word being looked up, for logging
+     * @return A future that never completes exceptionally.
+     */
+    private static CompletableFuture<String> valueOf(CompletableFuture<ScrapeOutcome<String>> future, String field,
+                                                     String kanji) {
+        if (future == null) {
+            return CompletableFuture.completedFuture("");
+        }
+
+        return future.thenApply(outcome -> {
+            if (!outcome.isFound()) {
+                logger.debug("No {} for {} ({})", field, kanji, outcome);
+            }
+            return outcome.orElse("");
+        });
+    }
+}
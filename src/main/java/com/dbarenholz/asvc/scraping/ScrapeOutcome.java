@@ -0,0 +1,167 @@
+package com.dbarenholz.asvc.scraping;
+
+import java.util.function.Function;
+
+/**
+ * Outcome of looking up a single word (or a page for it) from a source.
+ *
+ * Most lookups of a large batch do not find anything, or fail because a source is slow or down. Rather than throwing
+ * (and logging) an exception for each of them, lookups return an outcome saying what happened:
+ * <ul>
+ *     <li>{@link Kind#FOUND}: the value was found;</li>
+ *     <li>{@link Kind#NOT_FOUND}: the source works, but has nothing for this word (e.g. a 404, or no example
+ *     sentence);</li>
+ *     <li>{@link Kind#TRANSIENT_ERROR}: the lookup failed, but may succeed later (e.g. a timeout, or a 503);</li>
+ *     <li>{@link Kind#PERMANENT_ERROR}: the lookup failed, and will keep failing until the scraper is fixed (e.g. the
+ *     markup of the website changed).</li>
+ * </ul>
+ *
+ * Outcomes are cheap: failures carry a message only, no exception or stack trace.
+ *
+ * @param <T> type of the looked up value
+ */
+public final class ScrapeOutcome<T> {
+
+    /**
+     * Kinds of outcomes.
+     */
+    public enum Kind {
+        FOUND,
+        NOT_FOUND,
+        TRANSIENT_ERROR,
+        PERMANENT_ERROR
+    }
+
+    private final Kind kind;
+    private final T value;        // null unless found
+    private final String reason;  // null if found
+
+    private ScrapeOutcome(Kind kind, T value, String reason) {
+        this.kind = kind;
+        this.value = value;
+        this.reason = reason;
+    }
+
+    /**
+     * @param value looked up value
+     * @param <T>   type of the looked up value
+     * @return An outcome holding {@code value}.
+     */
+    public static <T> ScrapeOutcome<T> found(T value) {
+        return new ScrapeOutcome<>(Kind.FOUND, value, null);
+    }
+
+    /**
+     * @param reason what was not found, e.g. {@code "No sentence for 夢"}
+     * @param <T>    type of the looked up value
+     * @return An outcome saying the source has nothing for the word.
+     */
+    public static <T> ScrapeOutcome<T> notFound(String reason) {
+        return new ScrapeOutcome<>(Kind.NOT_FOUND, null, reason);
+    }
+
+    /**
+     * @param reason what went wrong
+     * @param <T>    type of the looked up value
+     * @return An outcome saying the lookup failed, but may succeed later.
+     */
+    public static <T> ScrapeOutcome<T> transientError(String reason) {
+        return new ScrapeOutcome<>(Kind.TRANSIENT_ERROR, null, reason);
+    }
+
+    /**
+     * @param reason what went wrong
+     * @param <T>    type of the looked up value
+     * @return An outcome saying the lookup failed, and will keep failing.
+     */
+    public static <T> ScrapeOutcome<T> permanentError(String reason) {
+        return new ScrapeOutcome<>(Kind.PERMANENT_ERROR, null, reason);
+    }
+
+    /**
+     * @return kind of this outcome
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return {@code true} if the value was found
+     */
+    public boolean isFound() {
+        return kind == Kind.FOUND;
+    }
+
+    /**
+     * @return {@code true} if the lookup failed, i.e. this outcome is a transient or permanent error
+     */
+    public boolean isError() {
+        return kind == Kind.TRANSIENT_ERROR || kind == Kind.PERMANENT_ERROR;
+    }
+
+    /**
+     * @return the found value, or {@code null} if not found
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return why nothing was found, or {@code null} if found
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @param fallback value to use if nothing was found
+     * @return the found value, or {@code fallback}
+     */
+    public T orElse(T fallback) {
+        return isFound() ? value : fallback;
+    }
+
+    /**
+     * Continues a lookup with the found value, e.g. to select an element from a found page.
+     *
+     * @param next next step of the lookup
+     * @param <U>  type of the result of the next step
+     * @return The outcome of {@code next}, or this outcome if nothing was found.
+     */
+    @SuppressWarnings("unchecked")
+    public <U> ScrapeOutcome<U> then(Function<? super T, ScrapeOutcome<U>> next) {
+        return isFound() ? next.apply(value) : (ScrapeOutcome<U>) this;
+    }
+
+    /**
+     * Transforms the found value.
+     *
+     * @param mapper transformation of the value
+     * @param <U>    type of the transformed value
+     * @return An outcome holding the transformed value, or this outcome if nothing was found.
+     */
+    public <U> ScrapeOutcome<U> map(Function<? super T, ? extends U> mapper) {
+        return then(found -> found(mapper.apply(found)));
+    }
+
+    /**
+     * Returns the found value, or throws an exception made from the reason. For callers that look up a single word,
+     * and handle a missing value as an exception.
+     *
+     * @param exception creates the exception to throw from the reason
+     * @param <X>       type of the exception
+     * @return the found value
+     * @throws X if nothing was found
+     */
+    public <X extends Exception> T orThrow(Function<String, X> exception) throws X {
+        if (!isFound()) {
+            throw exception.apply(reason);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return isFound() ? "found " + value : kind.toString().toLowerCase().replace('_', ' ') + ": " + reason;
+    }
+}
@@ -2,15 +2,12 @@ package com.dbarenholz.asvc.scraping;
 
 import com.dbarenholz.asvc.Settings;
 import com.dbarenholz.asvc.cache.Cache;
-import com.dbarenholz.asvc.exceptions.DownloadException;
-import com.dbarenholz.asvc.exceptions.TatoebaDownloadException;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Tatoeba Scraper.
@@ -21,6 +18,7 @@ public class TatoebaScraper extends Cache {
     private static final TatoebaScraper tInstance = new TatoebaScraper();
 
     private TatoebaScraper() {
+        super(ID, Settings.tatoeba);
     }
 
     public static TatoebaScraper getTatoeba() {
@@ -33,150 +31,119 @@ public class TatoebaScraper extends Cache {
     // page identifier used in retrieval
     private static final String PAGE_IDENTIFIER = ID + " page of ";
 
-    // sentence number to download
-    private static int sentenceNumber;
-
-    // enum decides which query to do
-    private enum queryType {
-        SENTENCE, ID
-    }
-
-    // type is used to switch on
-    private static queryType type;
+    // page identifiers of the two queries done per word
+    private static final String ID_PAGE_IDENTIFIER = "ID of " + PAGE_IDENTIFIER;
+    private static final String SENTENCE_PAGE_IDENTIFIER = "Sentence of " + PAGE_IDENTIFIER;
 
     /**
      * For some word, retrieves the ID of a sentence.
      *
      * @param wordString word to retrieve sentence ID for
-     * @return ID of sentence of given word
-     * @throws TatoebaDownloadException if something goes wrong with downloading
+     * @return ID of sentence of given word, or not found if Tatoeba has no sentence with the word
      */
-    private Integer retrieveSentenceID(String wordString) throws TatoebaDownloadException {
-        // Set query type
-        type = queryType.ID;
-
+    private ScrapeOutcome<Integer> retrieveSentenceID(String wordString) {
         // Set pageIdentifier string
-        String sentenceIDPageIdentifier = "ID of " + PAGE_IDENTIFIER + wordString;
-
-        // Retrieve Document
-        Document pageDoc;
-        try {
-            pageDoc = retrieve(sentenceIDPageIdentifier, wordString);
-        } catch (DownloadException e) {
-            throw new TatoebaDownloadException("Cannot retrieve data for word: " + wordString);
-        }
+        String sentenceIDPageIdentifier = ID_PAGE_IDENTIFIER + keyOf(wordString);
 
-        // Parse HTML and find integer to return.
-        return Integer.parseInt(
-                Objects.requireNonNull(pageDoc).select("md-subheader a")
-                        .first()
-                        .text()
-                        .replaceAll("#", "")
-        );
+        // Retrieve Document, and parse HTML to find integer to return. No result at all simply means no sentence.
+        return retrieve(sentenceIDPageIdentifier, wordString).then(pageDoc -> {
+            Element result = pageDoc.selectFirst("md-subheader a");
+            if (result == null) {
+                return ScrapeOutcome.notFound("No sentence for " + wordString);
+            }
+            try {
+                return ScrapeOutcome.found(Integer.parseInt(result.text().replaceAll("#", "")));
+            } catch (NumberFormatException e) {
+                return ScrapeOutcome.permanentError("No sentence ID in " + sentenceIDPageIdentifier);
+            }
+        });
     }
 
     /**
      * Retrieves a sentence for a word.
      *
      * @param wordString word to retrieve sentence for
-     * @return sentence
-     * @throws TatoebaDownloadException if something goes wrong when downloading
+     * @return sentence, or why it cannot be retrieved
      */
-    public String retrieveSentence(String wordString) throws TatoebaDownloadException {
-
-        // Set integer to correct number
-        sentenceNumber = retrieveSentenceID(wordString);
-
-        // Set query type
-        type = queryType.SENTENCE;
+    public ScrapeOutcome<String> retrieveSentence(String wordString) {
 
         // Set pageIdentifier string
-        String sentencePageIdentifier = "Sentence of " + PAGE_IDENTIFIER + wordString;
-
-        // Retrieve Document
-        Document pageDoc;
-        try {
-            pageDoc = retrieve(sentencePageIdentifier, wordString);
-        } catch (DownloadException e) {
-            throw new TatoebaDownloadException("Cannot retrieve data for word: " + wordString);
+        String sentencePageIdentifier = SENTENCE_PAGE_IDENTIFIER + keyOf(wordString);
+
+        // Retrieve Document. The sentence ID is only needed when the sentence itself is not yet cached.
+        ScrapeOutcome<Document> pageDoc = notYetDownloaded(sentencePageIdentifier)
+                ? downloadSentence(sentencePageIdentifier, wordString)
+                : fetch(sentencePageIdentifier, null, Settings.tatoeba);
+        if (pageDoc.isError() && notYetDownloaded(sentencePageIdentifier)) {
+            // a corrupt entry has been quarantined; its URL is only known through the sentence ID
+            pageDoc = downloadSentence(sentencePageIdentifier, wordString);
         }
 
         //JP div.sentence div.text
         //EN div.translation div.text
 
-        return Objects.requireNonNull(pageDoc)
-                .select("span.markup")
-                .first().text()
-                .replaceAll("｛", "\\[")
-                .replaceAll("｝", "\\]");
+        return pageDoc
+                .then(page -> first(page, "span.markup", sentencePageIdentifier))
+                .map(markup -> markup.text()
+                        .replaceAll("｛", "\\[")
+                        .replaceAll("｝", "\\]"));
+    }
+
+    /**
+     * Helper method for {@link #retrieveSentence(String)}; downloads the sentence page of a word, by way of the ID of
+     * the sentence.
+     *
+     * @param sentencePageIdentifier page identifier of the sentence page
+     * @param wordString             word to download the sentence page for
+     * @return Document from cache, or why it cannot be retrieved.
+     */
+    private ScrapeOutcome<Document> downloadSentence(String sentencePageIdentifier, String wordString) {
+        return retrieveSentenceID(wordString).then(sentenceID -> fetch(
+                sentencePageIdentifier,
+                Settings.tatoeba + "eng/sentences/show/" + sentenceID,
+                Settings.tatoeba));
+    }
+
+    /**
+     * Checks if the sentence page of a word is cached, so looking up the word does not need the network.
+     *
+     * @param wordString word to check
+     * @return {@code true} if the sentence page of {@code wordString} is cached, {@code false} otherwise.
+     */
+    public boolean isCached(String wordString) {
+        return !notYetDownloaded(SENTENCE_PAGE_IDENTIFIER + keyOf(wordString));
     }
 
+    /**
+     * Retrieves sentences for many words. Cached words resolve without waiting for the network, others as soon
+     * as they are downloaded.
+     *
+     * @param wordStrings words to retrieve sentences for
+     * @return A future sentence, or why it cannot be retrieved, per word.
+     * @see #retrieveSentence(String)
+     */
+    public Map<String, CompletableFuture<ScrapeOutcome<String>>> retrieveSentences(Collection<String> wordStrings) {
+        return batch(wordStrings, this::isCached, this::retrieveSentence);
+    }
 
     /**
-     * Retrieves a page from cache if it exists, or otherwise downloads it,
+     * Retrieves the search page from cache if it exists, or otherwise downloads it,
      * with {@code pageIdentifier} in its name, for some word {@code wordString}.
+     * The search page holds the ID of a sentence containing the word.
      *
      * @param pageIdentifier page for which a Document should be retrieved.
      * @param wordString     the word for which a Document should be retrieved.
-     * @return Document from cache.
-     * @throws DownloadException if something goes wrong
+     * @return Document from cache, or why it cannot be retrieved.
      */
     @Override
-    public Document retrieve(String pageIdentifier, String wordString) throws DownloadException {
-
-        // If data has not yet been downloaded
-        if (notYetDownloaded(pageIdentifier)) {
-
-            // Retrieve a response based on which site
-            Connection.Response response;
-
-            try {
-                switch (type) {
-                    case ID:
-                        response = getHTTPResponse(
-                                Settings.tatoeba + "eng/sentences/search?query=\"" + wordString +
-                                        "\"&from=jpn&to=eng&orphans=no&unapproved=no&user=&tags=&list=&has_audio=" +
-                                        "&trans_filter=limit&trans_to=eng&trans_link=&trans_user=&trans_orphan=no" +
-                                        "&trans_unapproved=no&trans_has_audio=&sort=random"
-                        );
-                        break;
-                    case SENTENCE:
-                        response = getHTTPResponse(
-                                Settings.tatoeba + "eng/sentences/show/" + sentenceNumber
-                        );
-                        break;
-                    default:
-                        response = null;
-                        break;
-                }
-            } catch (IOException e) {
-                throw new DownloadException(
-                        "Cannot retrieve response from website.",
-                        pageIdentifier,
-                        e
-                );
-            }
-
-            checkResponse(response, pageIdentifier);
-        }
-
-        Document pageDoc;
-
-        try {
-            pageDoc = Jsoup.parse(
-                    getPage(pageIdentifier),
-                    String.valueOf(StandardCharsets.UTF_8),
-                    Settings.tatoeba
-            );
-
-        } catch (IOException e) {
-            throw new DownloadException(
-                    "Cannot parse response from website.",
-                    pageIdentifier,
-                    e
-            );
-        }
-
-        return pageDoc;
+    public ScrapeOutcome<Document> retrieve(String pageIdentifier, String wordString) {
+        return fetch(
+                pageIdentifier,
+                Settings.tatoeba + "eng/sentences/search?query=\"" + wordString +
+                        "\"&from=jpn&to=eng&orphans=no&unapproved=no&user=&tags=&list=&has_audio=" +
+                        "&trans_filter=limit&trans_to=eng&trans_link=&trans_user=&trans_orphan=no" +
+                        "&trans_unapproved=no&trans_has_audio=&sort=random",
+                Settings.tatoeba
+        );
     }
 }
@@ -0,0 +1,236 @@
+package com.dbarenholz.asvc.scraping;
+
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Background warm-up of the cache.
+ *
+ * The first songs scraped are slow, because the cache starts empty. The warm-up prefetches the Jisho, Tatoeba and
+ * Forvo pages of frequent words, so that new songs mostly hit the cache. Words are taken from a frequency list: the
+ * file in {@link Settings#warmUpList}, if set, followed by the words of all songs tokenized before (the word history
+ * in {@link Settings#wordHistoryPath}). Both are text files with a word per line, optionally followed by a tab and its
+ * count; the history is kept sorted by count, and holds at most the {@link Settings#warmUpWords} most frequent words,
+ * as no warm-up gets to the words after those.
+ *
+ * The warm-up runs on a single low priority thread, one page at a time, pausing {@link Settings#warmUpDelay} after
+ * every page it downloads. It waits while the user is scraping (see {@link ScrapeEngine#isBusy()}), and backs off for
+ * {@link Settings#breakerCooldown} when a source fails.
+ */
+public class WarmUp {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private static final WarmUp wInstance = new WarmUp(Paths.get(Settings.wordHistoryPath));
+
+    private WarmUp(Path history) {
+        this.history = history;
+    }
+
+    public static WarmUp getWarmUp() {
+        return wInstance;
+    }
+
+    private static final long IDLE_CHECK = 1000; // ms between checks whether scraping is done
+
+    private final Path history;
+    private Thread thread = null; // running warm-up, if any
+
+    private final LongAdder fetched = Metrics.counter("warmup.fetched");
+    private final LongAdder failed = Metrics.counter("warmup.failed");
+
+    /**
+     * Single source to prefetch from.
+     */
+    private static class Source {
+        private final String name;
+        private final Predicate<String> cached;
+        private final Function<String, ScrapeOutcome<String>> lookup;
+
+        private Source(String name, Predicate<String> cached, Function<String, ScrapeOutcome<String>> lookup) {
+            this.name = name;
+            this.cached = cached;
+            this.lookup = lookup;
+        }
+    }
+
+    /**
+     * Adds the words of a tokenized song to the word history, so they are prefetched by later warm-ups. Reads and
+     * rewrites the history file, so should not be called on the FX thread.
+     *
+     * @param counts number of occurrences per word
+     */
+    public synchronized void record(Map<String, Integer> counts) {
+        try {
+            Map<String, Integer> merged = read(history);
+            counts.forEach((word, count) -> merged.merge(word, count, Integer::sum));
+
+            Files.createDirectories(history.getParent());
+            Path temporary = history.resolveSibling(history.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                List<Map.Entry<String, Integer>> entries = new ArrayList<>(merged.entrySet());
+                entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+                if (entries.size() > Settings.warmUpWords) {
+                    entries = entries.subList(0, Settings.warmUpWords);
+                }
+                for (Map.Entry<String, Integer> entry : entries) {
+                    out.write(entry.getKey() + '\t' + entry.getValue());
+                    out.newLine();
+                }
+            }
+            Files.move(temporary, history, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Cannot update word history {}: {}", history, e.getMessage());
+        }
+    }
+
+    /**
+     * Starts warming up the cache in the background, unless it is already running.
+     */
+    public synchronized void start() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+
+        thread = new Thread(this::run, "asvc-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the warm-up, if it is running. Pages being downloaded are still cached.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Helper method for {@link #start()}; prefetches the pages of all words in the frequency lists that are not cached
+     * yet.
+     */
+    private void run() {
+        Set<String> words = new LinkedHashSet<>();
+        try {
+            if (Settings.warmUpList != null) {
+                words.addAll(read(Paths.get(Settings.warmUpList)).keySet());
+            }
+            synchronized (this) {
+                words.addAll(read(history).keySet());
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read words to warm up the cache with: {}", e.getMessage());
+            return;
+        }
+
+        JishoScraper jisho = JishoScraper.getJisho();
+        TatoebaScraper tatoeba = TatoebaScraper.getTatoeba();
+        ForvoScraper forvo = ForvoScraper.getForvo();
+        List<Source> sources = List.of(
+                new Source("jisho", jisho::isCached, jisho::retrieveMeaning),
+                new Source("tatoeba", tatoeba::isCached, tatoeba::retrieveSentence),
+                new Source("forvo", forvo::isCached, forvo::retrieveAudio)
+        );
+
+        long start = System.currentTimeMillis();
+        long before = fetched.sum();
+        int checked = 0;
+        logger.info("Warming up the cache with up to {} of {} words", Settings.warmUpWords, words.size());
+
+        try {
+            for (String word : words) {
+                if (checked++ >= Settings.warmUpWords) {
+                    break;
+                }
+                for (Source source : sources) {
+                    if (!source.cached.test(word)) {
+                        prefetch(source, word);
+                    }
+                }
+            }
+            logger.info("Warmed up the cache in {} s, {} pages prefetched",
+                    (System.currentTimeMillis() - start) / 1000, fetched.sum() - before);
+        } catch (InterruptedException e) {
+            logger.debug("Warm-up stopped after {} pages", fetched.sum() - before);
+        }
+    }
+
+    /**
+     * Helper method for {@link #run()}; prefetches the page of a single word, once no scraping is running, and waits
+     * before the next one.
+     *
+     * @param source source to prefetch from
+     * @param word   word to prefetch
+     * @throws InterruptedException if the warm-up is stopped
+     */
+    private void prefetch(Source source, String word) throws InterruptedException {
+        while (ScrapeEngine.isBusy()) {
+            Thread.sleep(IDLE_CHECK);
+        }
+
+        ScrapeOutcome<String> outcome = source.lookup.apply(word);
+        if (outcome.getKind() == ScrapeOutcome.Kind.TRANSIENT_ERROR) {
+            // the source is down or refusing us; give it time, rather than failing on every word
+            failed.increment();
+            logger.debug("Cannot prefetch {} from {}, pausing the warm-up: {}", word, source.name, outcome);
+            Thread.sleep(Settings.breakerCooldown);
+        } else {
+            fetched.increment();
+            Thread.sleep(Settings.warmUpDelay);
+        }
+    }
+
+    /**
+     * Reads a frequency list.
+     *
+     * @param path text file with a word per line, optionally followed by a tab and its count
+     * @return The count per word, in the order of the file; words without a count have count 1.
+     * An empty map if the file does not exist.
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, Integer> read(Path path) throws IOException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return counts;
+        }
+
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] fields = line.strip().split("\t");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+
+            int count = 1;
+            if (fields.length > 1) {
+                try {
+                    count = Integer.parseInt(fields[1].strip());
+                } catch (NumberFormatException e) {
+                    // not a count, e.g. a reading or a translation: keep the word
+                }
+            }
+            counts.merge(fields[0], count, Integer::sum);
+        }
+        return counts;
+    }
+}
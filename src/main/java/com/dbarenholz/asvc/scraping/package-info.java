@@ -9,5 +9,6 @@
  * @see com.dbarenholz.asvc.scraping.ForvoScraper
  * @see com.dbarenholz.asvc.scraping.JishoScraper
  * @see com.dbarenholz.asvc.scraping.TatoebaScraper
+ * @see com.dbarenholz.asvc.scraping.ScrapeEngine
  */
 package com.dbarenholz.asvc.scraping;
\ No newline at end of file
@@ -0,0 +1,538 @@
+package com.dbarenholz.asvc.service;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+import com.dbarenholz.asvc.Settings;
+import com.dbarenholz.asvc.cache.CacheStore;
+import com.dbarenholz.asvc.cache.Connectivity;
+import com.dbarenholz.asvc.io.CSVWriter;
+import com.dbarenholz.asvc.io.ExportFormat;
+import com.dbarenholz.asvc.metrics.LatencyHistogram;
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.parsing.AccentEngine;
+import com.dbarenholz.asvc.parsing.WordExtractor;
+import com.dbarenholz.asvc.scraping.ResolutionPlan;
+import com.dbarenholz.asvc.scraping.ScrapeEngine;
+import com.dbarenholz.asvc.scraping.WarmUp;
+import com.dbarenholz.asvc.vocabitem.VocabItem;
+import com.dbarenholz.asvc.vocabitem.VocabStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deck-building service: a long-running, local HTTP/JSON API on top of the asvc pipeline.
+ *
+ * Running asvc as a service loads the kuromoji dictionary, the cache and the vocab store once, and shares them between
+ * all requests, so a request does not pay for a cold start. Every request scrapes with a fresh {@link ScrapeEngine}:
+ * the lookups an engine remembers would grow without bound over the life of the service, and would keep serving words
+ * that were not found (or failed) long ago. Words scraped by earlier requests are served from the vocab store and the
+ * cache instead. It listens on the loopback address only, on {@link Settings#servicePort}. Endpoints:
+ * <ul>
+ *     <li>{@code POST /tokenize[?limit=n]}: body is Japanese text; responds with the words in it, most frequent first,
+ *     as {@code {"words": [{"kanji": ..., "kana": ..., "count": ...}, ...]}}.</li>
+ *     <li>{@code GET /lookup?word=夢[&kana=ゆめ][&format=ANKI][&jishoKana=true]}: responds with the scraped item as a
+ *     JSON object with all fields of a {@link VocabItem}.</li>
+ *     <li>{@code POST /deck[?limit=n][&format=ANKI][&jishoKana=true]}: body is Japanese text; responds with the scraped
+ *     words as CSV in the given {@link ExportFormat} ({@code TEXT} by default).</li>
+ *     <li>{@code GET /media?name=forvo123.mp3}: responds with an audio or pitch accent file that a scraped item or a
+ *     row of a deck refers to, to copy into Anki's media folder.</li>
+ * </ul>
+ *
+ * Every endpoint has its own limit on concurrent requests ({@link Settings#serviceTokenizeLimit},
+ * {@link Settings#serviceLookupLimit}, {@link Settings#serviceDeckLimit}, {@link Settings#serviceMediaLimit}).
+ * Requests over the limit are refused at once with a {@code 503} and a {@code Retry-After} header, rather than queued
+ * behind requests that may take minutes.
+ */
+public class DeckService {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    // warm state, shared by all requests
+    private final Tokenizer tokenizer;
+    private final AccentEngine accentEngine;
+
+    // concurrent requests per endpoint
+    private final Semaphore tokenizeLimit = new Semaphore(Settings.serviceTokenizeLimit);
+    private final Semaphore lookupLimit = new Semaphore(Settings.serviceLookupLimit);
+    private final Semaphore deckLimit = new Semaphore(Settings.serviceDeckLimit);
+    private final Semaphore mediaLimit = new Semaphore(Settings.serviceMediaLimit);
+
+    private static final LongAdder rejected = Metrics.counter("service.rejected");
+
+    /**
+     * A single endpoint.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        /**
+         * @param query decoded query parameters of the request
+         * @param body  body of the request, decoded as UTF-8; empty for a GET
+         * @return The response to send.
+         * @throws IOException              if the response cannot be made
+         * @throws IllegalArgumentException if the request is invalid
+         */
+        Response serve(Map<String, String> query, String body) throws IOException;
+    }
+
+    /**
+     * A response of an endpoint.
+     */
+    private static class Response {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        private Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private static Response json(CharSequence json) {
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            return new Response(200, "application/json; charset=utf-8", body);
+        }
+    }
+
+    /**
+     * Creates a service on the loopback address, loading the kuromoji dictionary. It does not serve anything until
+     * {@link #start() started}.
+     *
+     * @param port port to listen on, or {@code 0} for any free port
+     * @throws IOException if the service cannot listen on {@code port}
+     */
+    public DeckService(int port) throws IOException {
+        long start = System.nanoTime();
+        this.tokenizer = new Tokenizer();
+        logger.info("Loaded tokenizer in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        this.accentEngine = new AccentEngine(tokenizer);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "asvc-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext("/tokenize",
+                exchange -> handle(exchange, "POST", "tokenize", tokenizeLimit, this::tokenize));
+        server.createContext("/lookup", exchange -> handle(exchange, "GET", "lookup", lookupLimit, this::lookup));
+        server.createContext("/deck", exchange -> handle(exchange, "POST", "deck", deckLimit, this::deck));
+        server.createContext("/media", exchange -> handle(exchange, "GET", "media", mediaLimit, this::media));
+    }
+
+    /**
+     * Starts serving.
+     */
+    public void start() {
+        server.start();
+        logger.info("Serving decks at {}", baseURL());
+    }
+
+    /**
+     * Stops serving. Requests still running are abandoned.
+     */
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        logger.info("Stopped serving decks");
+    }
+
+    /**
+     * @return URL of the service (e.g. {@code http://127.0.0.1:8765/})
+     */
+    public String baseURL() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/";
+    }
+
+    // === endpoints === //
+
+    /**
+     * {@code POST /tokenize}: the words of a text, most frequent first.
+     */
+    private Response tokenize(Map<String, String> query, String body) {
+        List<VocabItem> words = new ArrayList<>();
+        WordExtractor extractor = extractor(words);
+        extractor.extract(body);
+        words = extractor.mostFrequent(words, intParameter(query, "limit", Integer.MAX_VALUE));
+
+        StringBuilder json = new StringBuilder("{\"words\":[");
+        for (VocabItem word : words) {
+            json.append("{\"kanji\":");
+            quote(json, word.getKanji());
+            json.append(",\"kana\":");
+            quote(json, word.getKana());
+            json.append(",\"count\":").append(extractor.count(word)).append("},");
+        }
+        if (!words.isEmpty()) {
+            json.setLength(json.length() - 1);
+        }
+        return Response.json(json.append("]}"));
+    }
+
+    /**
+     * {@code GET /lookup}: a single scraped word.
+     */
+    private Response lookup(Map<String, String> query, String body) throws IOException {
+        String kanji = query.get("word");
+        if (kanji == null || kanji.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: word");
+        }
+
+        // without a reading, the word's reading according to kuromoji is used
+        String kana = query.get("kana");
+        if (kana == null) {
+            List<VocabItem> words = new ArrayList<>();
+            extractor(words).extract(kanji);
+            kana = words.stream()
+                    .filter(word -> word.getKanji().equals(kanji))
+                    .map(VocabItem::getKana)
+                    .findFirst()
+                    .orElse("");
+        }
+
+        VocabItem item = scrape(Collections.singletonList(new VocabItem(kanji, kana)), planOf(query)).get(0);
+
+        StringBuilder json = new StringBuilder("{");
+        field(json, "kanji", item.getKanji()).append(',');
+        field(json, "kana", item.getKana()).append(',');
+        field(json, "romaji", item.getRomaji()).append(',');
+        field(json, "translation", item.getTranslation()).append(',');
+        field(json, "sentenceJP", item.getSentenceJP()).append(',');
+        field(json, "sentenceEN", item.getSentenceEN()).append(',');
+        field(json, "audio", item.getAudioLocation()).append(',');
+        field(json, "accent", item.getAccentLocation());
+        return Response.json(json.append('}'));
+    }
+
+    /**
+     * {@code POST /deck}: the scraped words of a text, as CSV.
+     */
+    private Response deck(Map<String, String> query, String body) throws IOException {
+        ExportFormat format = formatOf(query);
+        List<VocabItem> words = new ArrayList<>();
+        WordExtractor extractor = extractor(words);
+        extractor.extract(body);
+        words = extractor.mostFrequent(words, intParameter(query, "limit", Integer.MAX_VALUE));
+        List<VocabItem> items = scrape(words, planOf(query));
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(csv, StandardCharsets.UTF_8), format)) {
+            writer.write(items);
+        }
+        return new Response(200, "text/csv; charset=utf-8", csv.toByteArray());
+    }
+
+    /**
+     * {@code GET /media}: an audio or pitch accent file from the cache.
+     */
+    private Response media(Map<String, String> query, String body) throws IOException {
+        String name = query.get("name");
+        if (name == null || !(name.endsWith(".mp3") || name.endsWith(".svg")) || name.contains("/")) {
+            throw new IllegalArgumentException("Not a media file: " + name);
+        }
+        if (!CacheStore.getStore().contains(name)) {
+            return error(404, "No media file " + name);
+        }
+
+        try (CacheStore.Entry entry = CacheStore.getStore().open(name)) {
+            String contentType = name.endsWith(".mp3") ? "audio/mpeg" : "image/svg+xml";
+            return new Response(200, contentType, entry.body().readAllBytes());
+        }
+    }
+
+    // === helpers === //
+
+    /**
+     * Helper method; creates a fresh extractor for a single request, sharing the warm tokenizer.
+     *
+     * @param words list to add the extracted words to
+     * @return A sequential extractor; requests are tokenized concurrently rather than their chunks.
+     */
+    private WordExtractor extractor(List<VocabItem> words) {
+        return new WordExtractor(tokenizer, words::addAll, 1);
+    }
+
+    /**
+     * Helper method; scrapes words with a fresh engine, waiting at most {@link Settings#batchDeadline} for them.
+     *
+     * @param words words to scrape
+     * @param plan  plan to scrape them with
+     * @return The scraped items, in the order of {@code words}.
+     * @throws IOException if the words cannot be scraped in time
+     */
+    private List<VocabItem> scrape(List<VocabItem> words, ResolutionPlan plan) throws IOException {
+        ScrapeEngine scrapeEngine = new ScrapeEngine(null, accentEngine);
+        Map<VocabItem, CompletableFuture<VocabItem>> scraped = scrapeEngine.scrape(words, plan);
+        List<VocabItem> items = new ArrayList<>(scraped.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Settings.batchDeadline + 1000);
+        try {
+            for (CompletableFuture<VocabItem> item : scraped.values()) {
+                items.add(item.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Cannot scrape words: " + e, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scraping words", e);
+        }
+        return items;
+    }
+
+    /**
+     * @param query query parameters of a request
+     * @return A plan scraping what the requested export format needs, from all sources.
+     */
+    private static ResolutionPlan planOf(Map<String, String> query) {
+        return new ResolutionPlan(formatOf(query).fields(), Boolean.parseBoolean(query.get("jishoKana")), true, true);
+    }
+
+    /**
+     * @param query query parameters of a request
+     * @return The requested export format, {@link ExportFormat#TEXT} by default.
+     */
+    private static ExportFormat formatOf(Map<String, String> query) {
+        String format = query.getOrDefault("format", ExportFormat.TEXT.name());
+        try {
+            return ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int fallback) {
+        String value = query.get(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name + "=" + value);
+        }
+    }
+
+    /**
+     * Handles a single request: checks the method and the concurrency limit, reads the body, and sends the response of
+     * the endpoint.
+     *
+     * @param exchange request and response
+     * @param method   HTTP method of the endpoint
+     * @param name     name of the endpoint, for metrics
+     * @param limit    concurrent requests of the endpoint
+     * @param endpoint endpoint to serve the request with
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange, String method, String name, Semaphore limit, Endpoint endpoint)
+            throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                send(exchange, error(405, "Use " + method));
+                return;
+            }
+
+            if (!limit.tryAcquire()) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, error(503, "Too many concurrent " + name + " requests"));
+                return;
+            }
+
+            LatencyHistogram latency = Metrics.histogram("service.latency." + name);
+            long start = System.nanoTime();
+            try {
+                byte[] body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    send(exchange, error(413, "Request body larger than " + Settings.serviceMaxBody + " bytes"));
+                    return;
+                }
+
+                Response response;
+                try {
+                    response = endpoint.serve(queryOf(exchange), new String(body, StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    response = error(400, e.getMessage());
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Cannot serve {}: {}", exchange.getRequestURI(), e.toString());
+                    response = error(500, e.getMessage());
+                }
+                send(exchange, response);
+            } finally {
+                latency.recordSince(start);
+                limit.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param in request body
+     * @return The body, or {@code null} if it is larger than {@link Settings#serviceMaxBody}.
+     * @throws IOException if the body cannot be read
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(Settings.serviceMaxBody + 1);
+        return body.length > Settings.serviceMaxBody ? null : body;
+    }
+
+    /**
+     * @param exchange request
+     * @return The decoded query parameters of the request; the last value of a repeated parameter wins.
+     */
+    private static Map<String, String> queryOf(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+
+        for (String parameter : raw.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+        if (response.body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body);
+            }
+        }
+    }
+
+    private static Response error(int status, String message) {
+        StringBuilder json = new StringBuilder("{");
+        field(json, "error", message == null ? "" : message);
+        byte[] body = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+        return new Response(status, "application/json; charset=utf-8", body);
+    }
+
+    // === JSON === //
+
+    private static StringBuilder field(StringBuilder json, String name, String value) {
+        quote(json, name);
+        json.append(':');
+        quote(json, value);
+        return json;
+    }
+
+    /**
+     * Appends a string as a JSON string literal.
+     *
+     * @param json  JSON being built
+     * @param value string to append
+     */
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    // === running === //
+
+    /**
+     * Runs the service until the process is killed: initialises the cache and the vocab store, as the application
+     * does, and serves on {@link Settings#servicePort}.
+     *
+     * @throws IOException if the service cannot be started
+     */
+    public static void serve() throws IOException {
+        try {
+            CacheStore.getStore().initialise();
+        } catch (IOException e) {
+            logger.warn("Cannot create cache at {}: {}", Settings.cachePath, e.getMessage());
+        }
+        try {
+            VocabStore.getVocabStore().load();
+        } catch (IOException e) {
+            logger.warn("Cannot load vocab store at {}: {}. Scraped words will not be kept.",
+                    Settings.vocabStorePath, e.getMessage());
+        }
+        Metrics.register();
+        Connectivity.getConnectivity().probeAll();
+        WarmUp.getWarmUp().start();
+
+        DeckService service = new DeckService(Settings.servicePort);
+        service.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.stop();
+            Metrics.logSummary();
+            try {
+                VocabStore.getVocabStore().close();
+            } catch (IOException e) {
+                logger.warn("Cannot close vocab store: {}", e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Runs the service until the process is killed, without JavaFX on the module path. Same as {@code asvc --service}.
+     *
+     * @param args command line arguments (not used)
+     * @throws IOException if the service cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        serve();
+    }
+}
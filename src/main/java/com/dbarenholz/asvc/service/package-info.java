@@ -0,0 +1,13 @@
+/**
+ * The service package runs asvc as a long-running, local HTTP/JSON service, so that many clients share one warm
+ * tokenizer, cache and vocab store instead of each starting the application.
+ *
+ * Start it with {@code asvc --service}; the port is {@code -Dasvc.servicePort} (8765 by default).
+ *
+ * @author dbarenholz
+ * @version 1.0
+ * @since 13
+ *
+ * @see com.dbarenholz.asvc.service.DeckService
+ */
+package com.dbarenholz.asvc.service;
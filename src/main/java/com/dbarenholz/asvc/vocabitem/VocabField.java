@@ -0,0 +1,76 @@
+package com.dbarenholz.asvc.vocabitem;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The fields of a {@link VocabItem}, so that exporters and the scrape engine can talk about which fields they need.
+ */
+public enum VocabField {
+    KANJI("Kanji", VocabItem::getKanji, null),
+    KANA("Kana", VocabItem::getKana, VocabItem::setKana),
+    ROMAJI("Romaji", VocabItem::getRomaji, VocabItem::setRomaji),
+    TRANSLATION("Translation", VocabItem::getTranslation, VocabItem::setTranslation),
+    SENTENCE_JP("Sentence", VocabItem::getSentenceJP, VocabItem::setSentenceJP),
+    SENTENCE_EN("Sentence (English)", VocabItem::getSentenceEN, VocabItem::setSentenceEN),
+    AUDIO("Audio", VocabItem::getAudioLocation, VocabItem::setAudioLocation),
+    ACCENT("Accent", VocabItem::getAccentLocation, VocabItem::setAccentLocation);
+
+    private final String title;
+    private final Function<VocabItem, String> getter;
+    private final BiConsumer<VocabItem, String> setter; // null if the field cannot be edited
+
+    VocabField(String title, Function<VocabItem, String> getter, BiConsumer<VocabItem, String> setter) {
+        this.title = title;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return human readable name of this field, e.g. as a column title
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * @return {@code true} if this field can be edited, i.e. it does not identify the item
+     */
+    public boolean isEditable() {
+        return setter != null;
+    }
+
+    /**
+     * Edits this field of an item, marking it as {@link VocabItem#isEdited(VocabField) edited} by the user.
+     *
+     * @param item  item to change the field of
+     * @param value new value of this field
+     * @throws UnsupportedOperationException if this field cannot be edited
+     */
+    public void set(VocabItem item, String value) {
+        assign(item, value);
+        item.markEdited(this);
+    }
+
+    /**
+     * Changes this field of an item, without marking it as edited.
+     *
+     * @param item  item to change the field of
+     * @param value new value of this field
+     * @throws UnsupportedOperationException if this field cannot be edited
+     */
+    void assign(VocabItem item, String value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException(this + " cannot be edited");
+        }
+        setter.accept(item, value);
+    }
+
+    /**
+     * @param item item to read the field of
+     * @return value of this field in {@code item}
+     */
+    public String of(VocabItem item) {
+        return getter.apply(item);
+    }
+}
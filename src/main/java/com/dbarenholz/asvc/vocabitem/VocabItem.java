@@ -1,16 +1,18 @@
 package com.dbarenholz.asvc.vocabitem;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.io.File;
+import com.dbarenholz.asvc.parsing.KeyNormalizer;
 
 /**
  * A VocabItem is an object holding all needed information for a word (e.g. 私).
  * It is the thing that gets exported to Anki / Akebi / ..
+ *
+ * Many of these are created while tokenizing large texts, so they are kept small: unset fields all share the same
+ * empty string, and audio and accent are referred to by their cache key rather than by a {@code File}.
+ *
+ * Items are identified by the {@link KeyNormalizer normalized} kanji, so that spellings of the same word (e.g. ネコ and
+ * ねこ) are the same item.
  */
 public class VocabItem implements Comparable<VocabItem> {
-    private static final Logger logger = LogManager.getLogger();
 
     // VocabItem defaults
     private String kanji = "";
@@ -19,15 +21,18 @@ public class VocabItem implements Comparable<VocabItem> {
     private String translation = "";
     private String sentenceJP = "";
     private String sentenceEN = "";
-    private File audioLocation = null;
-    private File accentLocation = null;
+    private String audioLocation = "";  // cache key of the audio file, empty if there is none
+    private String accentLocation = ""; // cache key of the accent graph, empty if there is none
+    private String key;                 // normalized kanji; usually the same string as kanji
+    private int edited = 0;             // fields edited by the user, one bit per VocabField ordinal
+    private String kanaSource = "";     // source the kana was scraped from, e.g. "jisho"; empty for the kuromoji kana
 
     // TODO Add clip and image in VocabItem directly.
     // private Clip audio = null;
     // private Image accent = null;
 
     // === constructors === //
-    public VocabItem(String kanji, String kana, String romaji, String translation, String sentenceJP, String sentenceEN, File audioLocation, File accentLocation) {
+    public VocabItem(String kanji, String kana, String romaji, String translation, String sentenceJP, String sentenceEN, String audioLocation, String accentLocation) {
         this.kanji = kanji;
         this.kana = kana;
         this.romaji = romaji;
@@ -36,16 +41,16 @@ public class VocabItem implements Comparable<VocabItem> {
         this.sentenceEN = sentenceEN;
         this.audioLocation = audioLocation;
         this.accentLocation = accentLocation;
+        this.key = KeyNormalizer.getNormalizer().normalize(kanji);
         // this.audio = audio;
         // this.accent = accent;
-
-        logger.info("Created VocabItem {}", this.toString());
     }
 
     // TODO: Testing purposes. Remove later.
     public VocabItem(String kanji, String kana) {
         this.kanji = kanji;
         this.kana = kana;
+        this.key = KeyNormalizer.getNormalizer().normalize(kanji);
     }
 
     // == getters == //
@@ -73,14 +78,120 @@ public class VocabItem implements Comparable<VocabItem> {
         return sentenceEN;
     }
 
-    public File getAudioLocation() {
+    public String getAudioLocation() {
         return audioLocation;
     }
 
-    public File getAccentLocation() {
+    public String getAccentLocation() {
         return accentLocation;
     }
 
+    // == setters == //
+    // for editing in the review table; the kanji identifies the item, so it cannot be changed
+    public void setKana(String kana) {
+        this.kana = kana;
+    }
+
+    public void setRomaji(String romaji) {
+        this.romaji = romaji;
+    }
+
+    public void setTranslation(String translation) {
+        this.translation = translation;
+    }
+
+    public void setSentenceJP(String sentenceJP) {
+        this.sentenceJP = sentenceJP;
+    }
+
+    public void setSentenceEN(String sentenceEN) {
+        this.sentenceEN = sentenceEN;
+    }
+
+    public void setAudioLocation(String audioLocation) {
+        this.audioLocation = audioLocation;
+    }
+
+    public void setAccentLocation(String accentLocation) {
+        this.accentLocation = accentLocation;
+    }
+
+    /**
+     * @return source the kana was scraped from (e.g. "jisho"), or an empty string if it is the kana kuromoji parsed
+     */
+    public String getKanaSource() {
+        return kanaSource;
+    }
+
+    public void setKanaSource(String kanaSource) {
+        this.kanaSource = kanaSource;
+    }
+
+    // == edits == //
+
+    /**
+     * @param field field of this item
+     * @return {@code true} if the user edited {@code field}, so scraping the word again must not overwrite it
+     */
+    public boolean isEdited(VocabField field) {
+        return (edited & 1 << field.ordinal()) != 0;
+    }
+
+    /**
+     * Marks a field as edited by the user.
+     *
+     * @param field field of this item
+     */
+    void markEdited(VocabField field) {
+        edited |= 1 << field.ordinal();
+    }
+
+    // for the vocab store
+    int getEdited() {
+        return edited;
+    }
+
+    void setEdited(int edited) {
+        this.edited = edited;
+    }
+
+    /**
+     * Merges an earlier item for the same word into this one, e.g. when the word has been scraped again: fields the
+     * user edited in {@code earlier} keep their edited value, and fields this item has no value for are filled in
+     * from {@code earlier}.
+     *
+     * @param earlier earlier item for the same word
+     */
+    public void mergeFrom(VocabItem earlier) {
+        for (VocabField field : VocabField.values()) {
+            if (earlier.isEdited(field)) {
+                field.set(this, field.of(earlier));
+            } else if (field.isEditable() && field.of(this).isEmpty()) {
+                field.assign(this, field.of(earlier));
+            }
+        }
+    }
+
+    /**
+     * Copies this item, e.g. to store it while the original can still be edited.
+     *
+     * @return A copy of this item, with the same edited fields and kana source.
+     */
+    public VocabItem copy() {
+        VocabItem copy = new VocabItem(kanji, kana, romaji, translation, sentenceJP, sentenceEN, audioLocation,
+                accentLocation);
+        copy.edited = edited;
+        copy.kanaSource = kanaSource;
+        return copy;
+    }
+
+    /**
+     * @return the normalized kanji, identifying this item
+     */
+    public String getKey() {
+        return key;
+    }
+
     /**
      * Returns string version of a vocab item as (Kanji, Translation).
      *
@@ -92,7 +203,7 @@ public class VocabItem implements Comparable<VocabItem> {
     }
 
     /**
-     * Tests equals based on Kanji.
+     * Tests equals based on the normalized Kanji.
      *
      * @param other object to test equality with
      * @return {@code true} if {@code other === this}, {@code false} otherwise.
@@ -100,12 +211,22 @@ public class VocabItem implements Comparable<VocabItem> {
     @Override
     public boolean equals(Object other) {
         if (other instanceof VocabItem) {
-            return getKanji().equals(((VocabItem) other).getKanji());
+            return getKey().equals(((VocabItem) other).getKey());
         } else {
             return false;
         }
     }
 
+    /**
+     * Hashes based on the normalized Kanji, consistent with {@link #equals(Object)}.
+     *
+     * @return hash code of the normalized kanji
+     */
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
     @Override
     public int compareTo(VocabItem other) {
         return new VocabComparator().compare(this, other);
@@ -0,0 +1,253 @@
+package com.dbarenholz.asvc.vocabitem;
+
+import com.dbarenholz.asvc.metrics.Metrics;
+import com.dbarenholz.asvc.parsing.KeyNormalizer;
+import com.dbarenholz.asvc.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistent store of fully scraped {@link VocabItem}s, keyed by kanji and reading.
+ *
+ * Items are appended to a binary log file as they are scraped, so that they survive restarts without re-parsing any
+ * cached page. On load the log is replayed into memory; later records for the same key replace earlier ones. Once the
+ * log holds mostly replaced records, it is compacted into a fresh log holding only the live items.
+ *
+ * Log format: a header ({@link #MAGIC}, {@link #VERSION}), followed by records of nine UTF strings, the fields edited
+ * by the user and the source of the kana each (see {@link #writeItem(DataOutputStream, String, VocabItem)}). A
+ * truncated trailing record, e.g. after a crash, is dropped. Logs of {@link #VERSION_UNSOURCED} and
+ * {@link #VERSION_UNEDITED} are read as having kuromoji kana (and no edits, respectively), and rewritten.
+ */
+public class VocabStore implements Closeable {
+    private static final Logger logger = LogManager.getLogger(); // logger
+
+    // readings whose key differs from the reading; kept apart from key.folded, which counts words
+    private static final LongAdder kanaFolded = Metrics.counter("key.folded.kana");
+
+    private static final VocabStore vsInstance = new VocabStore(Paths.get(Settings.vocabStorePath));
+
+    private VocabStore(Path path) {
+        this.path = path;
+    }
+
+    public static VocabStore getVocabStore() {
+        return vsInstance;
+    }
+
+    private static final int MAGIC = 0x41535653; // "ASVS"
+    private static final byte VERSION = 4; // 4: the source of the kana is recorded
+    private static final byte VERSION_UNSOURCED = 3; // fields edited by the user are recorded; no kana source
+    private static final byte VERSION_UNEDITED = 2; // audio and accent are cache keys rather than paths; no edits
+
+    // compact once the log holds more than this many records, and more than twice as many records as live items
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path path;
+    private final Map<String, VocabItem> items = new HashMap<>();
+    private DataOutputStream log = null;
+    private int records = 0;
+
+    /**
+     * Loads all items from disk, and opens the log for appending. Does nothing if the store is already loaded.
+     *
+     * @throws IOException if the log cannot be read or created
+     */
+    public synchronized void load() throws IOException {
+        if (log != null) {
+            return;
+        }
+
+        long validLength = 0;
+        byte version = VERSION;
+
+        if (Files.exists(path)) {
+            byte[] bytes = Files.readAllBytes(path);
+            ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+            DataInputStream in = new DataInputStream(buffer);
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a vocab store: " + path);
+                }
+                version = in.readByte();
+                if (version == VERSION || version == VERSION_UNSOURCED || version == VERSION_UNEDITED) {
+                    validLength = bytes.length - buffer.available();
+                } else {
+                    logger.info("Discarding vocab store {} written by an older version", path);
+                }
+
+                // replay records until the end of the log
+                while (validLength > 0 && buffer.available() > 0) {
+                    String kana = in.readUTF();
+                    VocabItem item = readItem(in, version);
+                    items.put(keyOf(item.getKanji(), kana), item);
+                    records++;
+                    validLength = bytes.length - buffer.available();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // incomplete trailing record (or header): keep everything before it
+            }
+        }
+
+        if (validLength == 0) {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+            }
+        } else if (validLength < Files.size(path)) {
+            // drop a truncated trailing record
+            logger.warn("Dropping truncated record at the end of {}", path);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(validLength);
+            }
+        }
+
+        logger.debug("Loaded {} items from {} records in {}", items.size(), records, path);
+
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+        if (validLength > 0 && version != VERSION) {
+            // records of the current version cannot be appended to a log of an older one
+            compact();
+        } else {
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Retrieves a stored item.
+     *
+     * @param kanji kanji of the item
+     * @param kana  reading of the item, as parsed by kuromoji
+     * @return The stored item, or {@code null} if there is none.
+     */
+    public synchronized VocabItem get(String kanji, String kana) {
+        return items.get(keyOf(kanji, kana));
+    }
+
+    /**
+     * Stores an item under {@code kanji} and {@code kana}, replacing any previously stored item.
+     * The item is flushed to disk before this method returns.
+     *
+     * @param kanji kanji of the item
+     * @param kana  reading of the item, as parsed by kuromoji
+     * @param item  item to store
+     */
+    public synchronized void put(String kanji, String kana, VocabItem item) {
+        items.put(keyOf(kanji, kana), item);
+
+        if (log == null) {
+            logger.warn("Vocab store is not loaded, {} is kept in memory only", kanji);
+            return;
+        }
+
+        try {
+            writeItem(log, kana, item);
+            log.flush();
+            records++;
+            compactIfNeeded();
+        } catch (IOException e) {
+            logger.warn("Cannot write {} to vocab store {}: {}", kanji, path, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the log. Items are kept in memory.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Rewrites the log such that it only holds live items, if it holds mostly replaced records.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void compactIfNeeded() throws IOException {
+        if (records <= COMPACT_THRESHOLD || records <= 2 * items.size()) {
+            return;
+        }
+        compact();
+    }
+
+    /**
+     * Rewrites the log such that it only holds live items, in the current version.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void compact() throws IOException {
+        logger.debug("Compacting vocab store: {} records, {} items", records, items.size());
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            for (Map.Entry<String, VocabItem> entry : items.entrySet()) {
+                String key = entry.getKey();
+                writeItem(out, key.substring(key.indexOf('\u0000') + 1), entry.getValue());
+            }
+        }
+
+        log.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+        records = items.size();
+    }
+
+    // === (de)serialisation === //
+
+    private static String keyOf(String kanji, String kana) {
+        KeyNormalizer normalizer = KeyNormalizer.getNormalizer();
+        return normalizer.normalize(kanji) + '\u0000' + normalizer.normalize(kana, kanaFolded);
+    }
+
+    private static void writeItem(DataOutputStream out, String kana, VocabItem item) throws IOException {
+        out.writeUTF(kana);
+        out.writeUTF(item.getKanji());
+        out.writeUTF(item.getKana());
+        out.writeUTF(item.getRomaji());
+        out.writeUTF(item.getTranslation());
+        out.writeUTF(item.getSentenceJP());
+        out.writeUTF(item.getSentenceEN());
+        out.writeUTF(item.getAudioLocation());
+        out.writeUTF(item.getAccentLocation());
+        out.writeInt(item.getEdited());
+        out.writeUTF(item.getKanaSource());
+    }
+
+    // reads an item of a log of the given version, after the key kana has been read
+    private static VocabItem readItem(DataInputStream in, byte version) throws IOException {
+        VocabItem item = new VocabItem(
+                readString(in), readString(in), readString(in), readString(in),
+                readString(in), readString(in), readString(in), readString(in)
+        );
+        if (version != VERSION_UNEDITED) {
+            item.setEdited(in.readInt());
+        }
+        if (version == VERSION) {
+            item.setKanaSource(readString(in));
+        }
+        return item;
+    }
+
+    // reads a string, sharing a single instance for the many empty fields
+    private static String readString(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        return value.isEmpty() ? "" : value;
+    }
+}
@@ -5,9 +5,12 @@ module asvc {
     requires org.jsoup;
     requires kuromoji.unidic.kanaaccent;
     requires kuromoji.core;
+    requires java.management;
+    requires jdk.httpserver;
 
     opens com.dbarenholz.asvc.vocabitem to javafx.base;
     exports com.dbarenholz.asvc;
+    exports com.dbarenholz.asvc.metrics to java.management;
 }
 
 